@@ -0,0 +1,93 @@
+package eu.inmite.android.plugin.butterknifezelezny.bench;
+
+import eu.inmite.android.plugin.butterknifezelezny.common.CodeGenerator;
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.LayoutId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of layout row parsing, element construction and code generation on synthetic layouts.
+ * Run with -prof gc to get allocation rate, see {@link BenchmarkMain}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratorBenchmark {
+
+    private static final String[] sTags = {"TextView", "ImageView", "Button", "LinearLayout", "com.example.widget.BadgeView", "WebView"};
+
+    @Param({"10", "100", "1000", "10000"})
+    public int views;
+
+    private String[] mRawIds;
+    private String[] mTags;
+    private String[] mParents;
+    private List<LayoutId> mRows;
+    private List<Element> mElements;
+    private CodeGenerator mGenerator;
+
+    @Setup
+    public void setUp() {
+        mRawIds = new String[views];
+        mTags = new String[views];
+        mParents = new String[views];
+        mRows = new ArrayList<LayoutId>(views);
+
+        for (int i = 0; i < views; i++) {
+            // every tenth view is container of the following ones, some IDs are from android namespace
+            mRawIds[i] = (i % 25 == 24 ? "@android:id/" : "@+id/") + "view_" + i;
+            mTags[i] = i % 10 == 0 ? "LinearLayout" : sTags[i % sTags.length];
+            mParents[i] = i % 10 == 0 ? null : "R.id.view_" + (i - i % 10);
+            mRows.add(LayoutId.create(mTags[i], mRawIds[i], null, mParents[i]));
+        }
+
+        mElements = createElements(mRows);
+        mGenerator = new CodeGenerator(mElements);
+    }
+
+    @Benchmark
+    public void parseRows(Blackhole blackhole) {
+        for (int i = 0; i < views; i++) {
+            blackhole.consume(LayoutId.create(mTags[i], mRawIds[i], null, mParents[i]));
+        }
+    }
+
+    @Benchmark
+    public List<Element> createElements() {
+        return createElements(mRows);
+    }
+
+    @Benchmark
+    public StringBuilder createInitViews() {
+        return mGenerator.createInitViews(true);
+    }
+
+    @Benchmark
+    public List<StringBuilder> createViewFields() {
+        return mGenerator.createViewFields();
+    }
+
+    @Benchmark
+    public StringBuilder createBindingClass() {
+        return mGenerator.createBindingClass(CodeGenerator.getBindingClassName("activity_main"), "activity_main", "R");
+    }
+
+    private static List<Element> createElements(List<LayoutId> rows) {
+        ArrayList<Element> elements = new ArrayList<Element>(rows.size());
+        for (LayoutId row : rows) {
+            Element element = row.toElement();
+            element.checkValidity();
+            elements.add(element);
+        }
+
+        return elements;
+    }
+}
@@ -0,0 +1,249 @@
+package eu.inmite.android.plugin.butterknifezelezny.perf;
+
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import com.intellij.util.TimeoutUtil;
+import eu.inmite.android.plugin.butterknifezelezny.InjectAction;
+import eu.inmite.android.plugin.butterknifezelezny.common.Stats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Whole generate pipeline - layout resolution, scan, confirmation without dialog and writer - on synthetic layouts
+ * of 10, 100 and 1000 IDs with nested includes and variant folders. Wall time and allocations of every phase
+ * are compared with budgets.properties, run with -Dbutterknifezelezny.perf.report=true to print measured values.
+ */
+public class GeneratePerformanceTest extends LightJavaCodeInsightFixtureTestCase {
+
+    private static final String[] sTags = {"TextView", "ImageView", "Button"};
+    private static final int sRuns = 3; // measured runs, their median is compared with budget
+    private static final long sTimeout = 120000; // ms, one run
+    private static final boolean sReport = Boolean.getBoolean("butterknifezelezny.perf.report");
+
+    private Properties mBudgets;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mBudgets = loadBudgets();
+        addAndroidStubs();
+        addIncludes();
+    }
+
+    public void testIds10() {
+        checkBudgets(10);
+    }
+
+    public void testIds100() {
+        checkBudgets(100);
+    }
+
+    public void testIds1000() {
+        checkBudgets(1000);
+    }
+
+    private void checkBudgets(int ids) {
+        addLayout("layout", ids, null);
+        addLayout("layout-land", ids, "land_only");
+        addLayout("layout-sw600dp", ids, "sw600dp_only");
+
+        // class loading, indexing and the first composition of includes aren't measured
+        generate(ids, "Warmup" + ids);
+
+        ArrayList<Stats.Invocation> runs = new ArrayList<Stats.Invocation>();
+        for (int i = 0; i < sRuns; i++) {
+            runs.add(generate(ids, "Screen" + ids + "Run" + i));
+        }
+
+        LinkedHashSet<String> phases = new LinkedHashSet<String>();
+        for (Stats.Invocation run : runs) {
+            phases.addAll(run.getPhases().keySet());
+        }
+
+        StringBuilder exceeded = new StringBuilder();
+        StringBuilder report = new StringBuilder();
+        for (String phase : phases) {
+            ArrayList<Long> durations = new ArrayList<Long>();
+            ArrayList<Long> allocations = new ArrayList<Long>();
+            for (Stats.Invocation run : runs) {
+                Long duration = run.getPhases().get(phase);
+                Long allocated = run.getAllocations().get(phase);
+                durations.add(duration == null ? 0 : duration);
+                allocations.add(allocated == null ? 0 : allocated);
+            }
+
+            check(getKey(ids, phase, "ms"), median(durations) / 1000000, exceeded, report);
+            check(getKey(ids, phase, "kb"), median(allocations) / 1024, exceeded, report);
+        }
+
+        if (sReport) {
+            System.out.print(report);
+        }
+        if (exceeded.length() > 0) {
+            fail("Budgets exceeded for " + ids + " IDs:\n" + exceeded);
+        }
+    }
+
+    private void check(String key, long measured, StringBuilder exceeded, StringBuilder report) {
+        report.append(key).append('=').append(measured).append('\n');
+
+        String budget = mBudgets.getProperty(key);
+        if (budget == null) {
+            exceeded.append("    no budget for ").append(key).append(", measured ").append(measured).append('\n');
+        } else if (measured > Long.parseLong(budget.trim())) {
+            exceeded.append("    ").append(key).append(": ").append(measured).append(" > ").append(budget.trim()).append('\n');
+        }
+    }
+
+    /**
+     * Run action on fresh class, dialog is confirmed with default selection in headless environment
+     *
+     * @param ids
+     * @param className
+     * @return measured invocation
+     */
+    private Stats.Invocation generate(int ids, String className) {
+        String fileName = className + ".java";
+        myFixture.configureByText(fileName, "public class " + className + " extends android.app.Activity {\n" +
+                "    protected void onCreate() {\n" +
+                "        setContentView(R.layout.screen_" + ids + "<caret>);\n" +
+                "    }\n" +
+                "}\n");
+
+        List<Stats.Invocation> before = Stats.getHistory();
+        new InjectAction().actionPerformedImpl(getProject(), myFixture.getEditor());
+        Stats.Invocation invocation = waitForInvocation(fileName, before);
+
+        String text = myFixture.getFile().getText();
+        assertTrue("Views were not initialized in " + fileName, text.contains("initViews(") && text.contains("findViewById(R.id.view_2)"));
+
+        return invocation;
+    }
+
+    /**
+     * Layout is scanned by background task and dialog is confirmed on EDT afterwards
+     *
+     * @param label
+     * @param before history before invocation started
+     * @return
+     */
+    private Stats.Invocation waitForInvocation(String label, List<Stats.Invocation> before) {
+        long deadline = System.currentTimeMillis() + sTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            PlatformTestUtil.dispatchAllInvocationEventsInIdeEventQueue();
+
+            for (Stats.Invocation invocation : Stats.getHistory()) {
+                if (!before.contains(invocation) && label.equals(invocation.getLabel())) {
+                    return invocation;
+                }
+            }
+
+            TimeoutUtil.sleep(10);
+        }
+
+        fail("Generating for " + label + " didn't finish in " + sTimeout + " ms");
+        return null;
+    }
+
+    /**
+     * Screen layout of given size - root, nested include without ID, include with ID, two instances of
+     * the same include with IDs (from 100 IDs) and groups of direct views
+     *
+     * @param folder
+     * @param ids    number of IDs in composed layout
+     * @param extra  ID only in this variant, may be null
+     */
+    private void addLayout(String folder, int ids, String extra) {
+        StringBuilder s = new StringBuilder();
+        s.append("<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\" android:id=\"@+id/screen_root\">\n");
+        s.append("    <include layout=\"@layout/perf_header\"/>\n"); // 4 IDs, toolbar nested inside
+        s.append("    <include android:id=\"@+id/details\" layout=\"@layout/perf_row\"/>\n"); // 3 IDs, root takes ID of include
+        int count = 8;
+        if (ids >= 100) {
+            s.append("    <include android:id=\"@+id/row_first\" layout=\"@layout/perf_row\"/>\n");
+            s.append("    <include android:id=\"@+id/row_second\" layout=\"@layout/perf_row\"/>\n");
+            count += 6;
+        }
+
+        // groups of ten views, the first of each is container of the others
+        for (int i = 1; count < ids; i++) {
+            if (i % 10 == 1) {
+                if (i > 1) {
+                    s.append("    </LinearLayout>\n");
+                }
+                s.append("    <LinearLayout android:id=\"@+id/group_").append(i).append("\">\n");
+            } else {
+                String tag = sTags[i % sTags.length];
+                s.append("        <").append(tag).append(" android:id=\"@+id/view_").append(i).append("\"/>\n");
+            }
+            count++;
+        }
+        s.append("    </LinearLayout>\n");
+
+        if (extra != null) {
+            s.append("    <TextView android:id=\"@+id/").append(extra).append("\"/>\n");
+        }
+        s.append("</LinearLayout>\n");
+
+        myFixture.addFileToProject("res/" + folder + "/screen_" + ids + ".xml", s.toString());
+    }
+
+    private void addIncludes() {
+        myFixture.addFileToProject("res/layout/perf_toolbar.xml",
+                "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\">\n" +
+                "    <TextView android:id=\"@+id/toolbar_title\"/>\n" +
+                "    <ImageView android:id=\"@+id/toolbar_icon\"/>\n" +
+                "</LinearLayout>\n");
+        myFixture.addFileToProject("res/layout/perf_header.xml",
+                "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\" android:id=\"@+id/header_root\">\n" +
+                "    <include layout=\"@layout/perf_toolbar\"/>\n" +
+                "    <TextView android:id=\"@+id/header_subtitle\"/>\n" +
+                "</LinearLayout>\n");
+        myFixture.addFileToProject("res/layout/perf_row.xml",
+                "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\">\n" +
+                "    <TextView android:id=\"@+id/row_label\"/>\n" +
+                "    <TextView android:id=\"@+id/row_value\"/>\n" +
+                "</LinearLayout>\n");
+    }
+
+    private void addAndroidStubs() {
+        myFixture.addClass("package android.view; public class View { public View findViewById(int id) { return null; } public Object getTag() { return null; } public void setTag(Object tag) { } }");
+        myFixture.addClass("package android.view; public class ViewGroup extends View { }");
+        myFixture.addClass("package android.widget; public class TextView extends android.view.View { }");
+        myFixture.addClass("package android.widget; public class Button extends TextView { }");
+        myFixture.addClass("package android.widget; public class ImageView extends android.view.View { }");
+        myFixture.addClass("package android.widget; public class LinearLayout extends android.view.ViewGroup { }");
+        myFixture.addClass("package android.app; public class Activity { public android.view.View findViewById(int id) { return null; } public void setContentView(int layout) { } }");
+    }
+
+    private Properties loadBudgets() throws IOException {
+        InputStream stream = GeneratePerformanceTest.class.getResourceAsStream("budgets.properties");
+        assertNotNull("budgets.properties not found", stream);
+
+        Properties budgets = new Properties();
+        try {
+            budgets.load(stream);
+        } finally {
+            stream.close();
+        }
+
+        return budgets;
+    }
+
+    /**
+     * Budget key, eg. ids100.id_scan.ms
+     */
+    private static String getKey(int ids, String phase, String unit) {
+        return "ids" + ids + "." + phase.replace(' ', '_') + "." + unit;
+    }
+
+    private static long median(List<Long> values) {
+        ArrayList<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,328 @@
+package eu.inmite.android.plugin.butterknifezelezny;
+
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.Processor;
+import eu.inmite.android.plugin.butterknifezelezny.common.BoundIds;
+import eu.inmite.android.plugin.butterknifezelezny.common.Stats;
+import eu.inmite.android.plugin.butterknifezelezny.common.Utils;
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.Options;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Generate views for every class referencing R.layout.* in selected module or whole project
+ */
+public class BulkInjectAction extends AnAction {
+
+	private static final Logger sLog = Logger.getInstance(BulkInjectAction.class);
+	private static final int sBatchSize = 20; // classes written in one command
+	private static final int sListedFiles = 10; // skipped files named in notification
+
+	@Override
+	public void update(AnActionEvent event) {
+		event.getPresentation().setEnabled(event.getData(PlatformDataKeys.PROJECT) != null && Utils.findAndroidSDK() != null);
+	}
+
+	@Override
+	public void actionPerformed(AnActionEvent event) {
+		Project project = event.getData(PlatformDataKeys.PROJECT);
+		if (project == null) {
+			return;
+		}
+
+		Module module = event.getData(LangDataKeys.MODULE);
+		GlobalSearchScope scope;
+		String title;
+		if (module != null) {
+			scope = GlobalSearchScope.moduleScope(module);
+			title = module.getName();
+		} else {
+			scope = GlobalSearchScope.projectScope(project);
+			title = project.getName();
+		}
+
+		ProgressManager.getInstance().run(new BulkTask(project, scope, title));
+	}
+
+	// classes
+
+	/**
+	 * Class referencing layout and views which should be initialized in it
+	 */
+	protected static class Target {
+
+		final SmartPsiElementPointer<PsiClass> mClass;
+		final String mLayoutName;
+		final ArrayList<Element> mElements;
+		final boolean mCreateHolder;
+
+		Target(PsiClass clazz, String layoutName, ArrayList<Element> elements, boolean createHolder) {
+			mClass = SmartPointerManager.getInstance(clazz.getProject()).createSmartPsiElementPointer(clazz);
+			mLayoutName = layoutName;
+			mElements = elements;
+			mCreateHolder = createHolder;
+		}
+	}
+
+	protected static class BulkTask extends Task.Backgroundable {
+
+		private final GlobalSearchScope mScope;
+		private final Stats.Invocation mStats;
+		private int mWritten = 0;
+		private String mAborted; // reason why nothing was written
+
+		public BulkTask(Project project, GlobalSearchScope scope, String title) {
+			super(project, "Initializing views in " + title, true);
+
+			mScope = scope;
+			mStats = Stats.start("bulk " + title);
+		}
+
+		@Override
+		public void run(final ProgressIndicator indicator) {
+			indicator.setText("Searching for layout references");
+			indicator.setIndeterminate(true);
+
+			long begin = mStats.begin();
+			List<PsiJavaFile> files = ApplicationManager.getApplication().runReadAction(new Computable<List<PsiJavaFile>>() {
+
+				@Override
+				public List<PsiJavaFile> compute() {
+					return findCandidates();
+				}
+			});
+
+			mStats.end("candidate search", begin);
+			mStats.count("candidate files", files.size());
+
+			// resolve and scan layouts in parallel, shared includes are cached by LayoutCache
+			indicator.setText("Scanning layouts");
+			indicator.setIndeterminate(false);
+			final ConcurrentLinkedQueue<Target> targets = new ConcurrentLinkedQueue<Target>();
+			final Set<PsiJavaFile> scanned = Collections.newSetFromMap(new ConcurrentHashMap<PsiJavaFile, Boolean>());
+			final int total = files.size();
+			final int[] done = {0};
+			begin = mStats.begin();
+
+			boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, indicator, true, new Processor<PsiJavaFile>() {
+
+				@Override
+				public boolean process(final PsiJavaFile file) {
+					// workers don't inherit read access of this thread, there is none
+					Stats.Invocation previous = mStats.swap(); // count layouts scanned by workers
+					try {
+						ApplicationManager.getApplication().runReadAction(new Runnable() {
+
+							@Override
+							public void run() {
+								if (file.isValid()) {
+									collectTargets(file, targets);
+								}
+							}
+						});
+					} finally {
+						Stats.restore(previous);
+					}
+					scanned.add(file);
+					synchronized (done) {
+						indicator.setFraction(0.5 * ++done[0] / Math.max(1, total));
+					}
+					return true;
+				}
+			});
+			if (!completed) {
+				indicator.checkCanceled();
+
+				// don't write part of classes silently
+				ArrayList<String> skipped = new ArrayList<String>();
+				for (PsiJavaFile file : files) {
+					if (!scanned.contains(file)) {
+						skipped.add(file.getName());
+					}
+				}
+				mStats.end("id scan", begin);
+				String names = StringUtil.join(skipped.subList(0, Math.min(skipped.size(), sListedFiles)), ", ");
+				if (skipped.size() > sListedFiles) {
+					names += ", ...";
+				}
+				mAborted = "Views were not initialized, " + skipped.size() + " files were not scanned: " + names;
+				return;
+			}
+			mStats.end("id scan", begin);
+			mStats.count("classes", targets.size());
+
+			// write in batches, all of them form one undoable group
+			indicator.setText("Writing views");
+			final Object group = new Object();
+			final ArrayList<Target> pending = new ArrayList<Target>(targets);
+
+			for (int start = 0; start < pending.size(); start += sBatchSize) {
+				indicator.checkCanceled();
+				indicator.setFraction(0.5 + 0.5 * start / pending.size());
+
+				final List<Target> batch = pending.subList(start, Math.min(start + sBatchSize, pending.size()));
+				begin = mStats.begin();
+				ApplicationManager.getApplication().invokeAndWait(new Runnable() {
+
+					@Override
+					public void run() {
+						writeBatch(batch, group);
+					}
+				}, ModalityState.defaultModalityState());
+				mStats.end("writing", begin);
+			}
+		}
+
+		@Override
+		public void onCancel() {
+			mStats.finish();
+		}
+
+		@Override
+		public void onSuccess() {
+			mStats.count("classes written", mWritten);
+			mStats.finish();
+
+			if (mAborted != null) {
+				Utils.showErrorNotification(myProject, mAborted);
+				return;
+			}
+
+			if (mWritten == 1) {
+				Utils.showInfoNotification(myProject, "Views initialized in one class");
+			} else {
+				Utils.showInfoNotification(myProject, "Views initialized in " + mWritten + " classes");
+			}
+		}
+
+		/**
+		 * Java files in scope containing word "layout"
+		 *
+		 * @return
+		 */
+		private List<PsiJavaFile> findCandidates() {
+			final ArrayList<PsiJavaFile> files = new ArrayList<PsiJavaFile>();
+
+			PsiSearchHelper.SERVICE.getInstance(myProject).processAllFilesWithWord("layout", mScope, new Processor<PsiFile>() {
+
+				@Override
+				public boolean process(PsiFile file) {
+					if (file instanceof PsiJavaFile) {
+						files.add((PsiJavaFile) file);
+					}
+					return true;
+				}
+			}, true);
+
+			return files;
+		}
+
+		/**
+		 * Find classes referencing R.layout.* in file and scan their layouts
+		 *
+		 * @param file
+		 * @param targets
+		 */
+		private void collectTargets(PsiJavaFile file, Collection<Target> targets) {
+			final LinkedHashMap<PsiClass, String> layouts = new LinkedHashMap<PsiClass, String>();
+
+			file.accept(new JavaRecursiveElementWalkingVisitor() {
+
+				@Override
+				public void visitReferenceExpression(PsiReferenceExpression expression) {
+					super.visitReferenceExpression(expression);
+
+					PsiExpression qualifier = expression.getQualifierExpression();
+					if (qualifier == null || !"R.layout".equals(qualifier.getText())) {
+						return;
+					}
+
+					PsiClass clazz = PsiTreeUtil.getParentOfType(expression, PsiClass.class);
+					while (clazz instanceof PsiAnonymousClass) {
+						clazz = PsiTreeUtil.getParentOfType(clazz, PsiClass.class);
+					}
+					if (clazz != null && !layouts.containsKey(clazz)) {
+						layouts.put(clazz, expression.getReferenceName());
+					}
+				}
+			});
+
+			for (Map.Entry<PsiClass, String> entry : layouts.entrySet()) {
+				PsiClass clazz = entry.getKey();
+				PsiFile layout = Utils.findLayoutResource(myProject, ModuleUtilCore.findModuleForPsiElement(clazz), entry.getValue());
+				if (layout == null) {
+					continue;
+				}
+
+				ArrayList<Element> elements = Utils.getIDsFromLayout(layout);
+				Set<String> bound = BoundIds.get(clazz);
+				boolean unbound = false;
+				for (Element element : elements) {
+					element.used = !bound.contains(element.getFullID());
+					unbound |= element.used;
+				}
+
+				if (unbound) {
+					targets.add(new Target(clazz, layout.getName(), elements, Utils.isAdapter(clazz)));
+				}
+			}
+		}
+
+		private void writeBatch(final List<Target> batch, Object group) {
+			if (myProject.isDisposed()) {
+				return;
+			}
+
+			CommandProcessor.getInstance().executeCommand(myProject, new Runnable() {
+
+				@Override
+				public void run() {
+					ApplicationManager.getApplication().runWriteAction(new Runnable() {
+
+						@Override
+						public void run() {
+							for (Target target : batch) {
+								PsiClass clazz = target.mClass.getElement();
+								if (clazz == null || !clazz.isValid()) {
+									continue; // class changed meanwhile
+								}
+
+								InjectWriter writer = new InjectWriter(clazz.getContainingFile(), clazz, "Generate Injections", target.mElements, target.mLayoutName, null, new Options(target.mCreateHolder));
+								writer.setStats(mStats);
+								try {
+									writer.run();
+									mWritten++;
+								} catch (Throwable e) {
+									sLog.warn("Views were not initialized in " + clazz.getQualifiedName(), e);
+								}
+							}
+						}
+					});
+				}
+			}, "Initialize Views", group);
+		}
+	}
+}
@@ -4,23 +4,38 @@ import com.intellij.codeInsight.CodeInsightActionHandler;
 import com.intellij.codeInsight.generation.actions.BaseGenerateAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.psi.*;
 import com.intellij.psi.util.PsiUtilBase;
-import eu.inmite.android.plugin.butterknifezelezny.common.Defintions;
+import eu.inmite.android.plugin.butterknifezelezny.common.BoundIds;
+import eu.inmite.android.plugin.butterknifezelezny.common.CancellableReadAction;
+import eu.inmite.android.plugin.butterknifezelezny.common.InvocationContext;
+import eu.inmite.android.plugin.butterknifezelezny.common.Stats;
 import eu.inmite.android.plugin.butterknifezelezny.common.Utils;
 import eu.inmite.android.plugin.butterknifezelezny.form.EntryList;
 import eu.inmite.android.plugin.butterknifezelezny.iface.ICancelListener;
 import eu.inmite.android.plugin.butterknifezelezny.iface.IConfirmListener;
 import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.Options;
 
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Set;
 
 public class InjectAction extends BaseGenerateAction implements IConfirmListener, ICancelListener {
 
 	protected JFrame mDialog;
+	protected Stats.Invocation mStats;
+	// resolved by scan, caret may move while the dialog is open
+	protected PsiFile mFile;
+	protected PsiFile mLayout;
+	protected PsiClass mClass;
 
 	@SuppressWarnings("unused")
 	public InjectAction() {
@@ -39,7 +54,7 @@ public class InjectAction extends BaseGenerateAction implements IConfirmListener
 
 	@Override
 	public boolean isValidForFile(Project project, Editor editor, PsiFile file) {
-	    return super.isValidForFile(project,editor,file)&&Utils.getLayoutFileFromCaret(editor,file)!=null;
+	    return super.isValidForFile(project,editor,file)&&InvocationContext.getLayout(editor,file)!=null;
     }
 
 	@Override
@@ -53,29 +68,39 @@ public class InjectAction extends BaseGenerateAction implements IConfirmListener
 	@Override
 	public void actionPerformedImpl(Project project, Editor editor) {
 		PsiFile file = PsiUtilBase.getPsiFileInEditor(editor, project);
-		PsiFile layout = Utils.getLayoutFileFromCaret(editor, file);
+		Stats.Invocation stats = Stats.start(file == null ? "?" : file.getName());
+
+		long begin = stats.begin();
+		PsiFile layout = InvocationContext.getLayout(editor, file);
+		stats.end("layout resolution", begin);
 
 		if (layout == null) {
+			stats.finish();
 			Utils.showErrorNotification(project, "No layout found");
 			return; // no layout found
 		}
-        //在layout文件中查找id
-		ArrayList<Element> elements = Utils.getIDsFromLayout(layout);
-		if (!elements.isEmpty()) {
-            //存在id则显示dialog
-			showDialog(project, editor, elements);
-		} else {
-			Utils.showErrorNotification(project, "No IDs found in layout");
-		}
+
+		// class at caret is resolved together with layout, caret may move while scanning
+		PsiClass clazz = getTargetClass(editor, file);
+
+		// layout and its includes are scanned in background, dialog is shown when done
+		ProgressManager.getInstance().run(new ScanTask(project, editor, file, layout, clazz, stats));
 	}
 
-	public void onConfirm(Project project, Editor editor, ArrayList<Element> elements, String fieldNamePrefix, boolean createHolder,String holderClassName,String methodName) {
+	public void onConfirm(Project project, Editor editor, ArrayList<Element> elements, String fieldNamePrefix, Options options) {
         //Dialog点击确定的时候调用,即生成代码
-		PsiFile file = PsiUtilBase.getPsiFileInEditor(editor, project);
-		PsiFile layout = Utils.getLayoutFileFromCaret(editor, file);
+		PsiFile file = mFile;
+		PsiFile layout = mLayout;
+		PsiClass clazz = mClass;
 
 		closeDialog();
 
+		if (file == null || layout == null || clazz == null || !file.isValid() || !layout.isValid() || !clazz.isValid()) {
+			finishStats();
+			Utils.showErrorNotification(project, "Class or layout was changed meanwhile");
+			return;
+		}
+
 		// count selected elements
 		int cnt = 0;
 		for (Element element : elements) {
@@ -86,7 +111,11 @@ public class InjectAction extends BaseGenerateAction implements IConfirmListener
 
 		if (cnt > 0) { // generate injections
             //生成注解
-			new InjectWriter(file, getTargetClass(editor, file), "Generate Injections", elements, fieldNamePrefix, layout.getName(), createHolder,holderClassName,methodName).execute();
+			InjectWriter writer = new InjectWriter(file, clazz, "Generate Injections", elements, layout.getName(), fieldNamePrefix, options);
+			if (mStats != null) {
+				writer.setStats(mStats);
+			}
+			writer.execute();
 
 			if (cnt == 1) {
 				Utils.showInfoNotification(project, "One injection added to " + file.getName());
@@ -96,44 +125,29 @@ public class InjectAction extends BaseGenerateAction implements IConfirmListener
 		} else { // just notify user about no element selected
 			Utils.showInfoNotification(project, "No injection was selected");
 		}
+
+		finishStats();
 	}
 
 	public void onCancel() {
 		closeDialog();
+		finishStats();
 	}
 
-	protected void showDialog(Project project, Editor editor, ArrayList<Element> elements) {
-		PsiFile file = PsiUtilBase.getPsiFileInEditor(editor, project);
-		PsiClass clazz = getTargetClass(editor, file);
-
-		// get parent classes and check if it's an adapter
-        //获取父类class并检测是不是adapter
-		boolean createHolder = false;
-		PsiReferenceList list = getTargetClass(editor, file).getExtendsList();
-		for (PsiJavaCodeReferenceElement element : list.getReferenceElements()) {
-			if (Defintions.adapters.contains(element.getQualifiedName())) {
-				createHolder = true;
-			}
-		}
-
-		// get already generated injections
-        //获取已经生成的注解
-		ArrayList<String> ids = new ArrayList<String>();
-		PsiField[] fields = clazz.getAllFields();
-		String[] annotations;
-		String id;
-
-		for (PsiField field : fields) {
-			annotations = field.getFirstChild().getText().split(" ");
-
-			for (String annotation : annotations) {
-				id = Utils.getInjectionID(annotation.trim());
-				if (!Utils.isEmptyString(id)) {
-					ids.add(id);
+	protected void showDialog(Project project, Editor editor, ArrayList<Element> elements, Set<String> ids, boolean createHolder) {
+		if (ApplicationManager.getApplication().isHeadlessEnvironment()) {
+			// no UI (eg. tests or command line), confirm default selection
+			for (Element element : elements) {
+				if (ids != null && ids.contains(element.getFullID())) {
+					element.used = false;
 				}
 			}
+			onConfirm(project, editor, elements, null, new Options(createHolder));
+
+			return;
 		}
 
+		long begin = mStats == null ? 0 : mStats.begin();
 		EntryList panel = new EntryList(project, editor, elements, ids, createHolder, this, this);
 
 		mDialog = new JFrame();
@@ -142,6 +156,9 @@ public class InjectAction extends BaseGenerateAction implements IConfirmListener
 		mDialog.pack();
 		mDialog.setLocationRelativeTo(null);
 		mDialog.setVisible(true);
+		if (mStats != null) {
+			mStats.end("dialog construction", begin);
+		}
 	}
 
 	protected void closeDialog() {
@@ -152,4 +169,109 @@ public class InjectAction extends BaseGenerateAction implements IConfirmListener
 		mDialog.setVisible(false);
 		mDialog.dispose();
 	}
+
+	protected void finishStats() {
+		if (mStats == null) {
+			return;
+		}
+
+		mStats.finish();
+		mStats = null;
+	}
+
+	// classes
+
+	/**
+	 * Scans layout with includes and class being edited without blocking UI
+	 */
+	protected class ScanTask extends Task.Backgroundable {
+
+		private final Editor mEditor;
+		private final PsiFile mFile;
+		private final PsiFile mLayout;
+		private final Stats.Invocation mTaskStats;
+		private ArrayList<Element> mElements;
+		private Set<String> mIds;
+		private boolean mCreateHolder;
+		private final PsiClass mTargetClass;
+
+		public ScanTask(Project project, Editor editor, PsiFile file, PsiFile layout, PsiClass clazz, Stats.Invocation stats) {
+			super(project, "Scanning " + layout.getName(), true);
+
+			mEditor = editor;
+			mFile = file;
+			mLayout = layout;
+			mTargetClass = clazz;
+			mTaskStats = stats;
+		}
+
+		@Override
+		public void run(ProgressIndicator indicator) {
+			indicator.setIndeterminate(true);
+
+			mTaskStats.attach(); // count includes visited by layout cache
+			try {
+				scan(indicator);
+			} finally {
+				mTaskStats.detach();
+			}
+		}
+
+		private void scan(ProgressIndicator indicator) {
+			CancellableReadAction.compute(indicator, new Computable<Object>() {
+
+				@Override
+				public Object compute() {
+					if (!mLayout.isValid() || !mFile.isValid() || (mTargetClass != null && !mTargetClass.isValid())) {
+						return null;
+					}
+
+					//在layout文件中查找id
+					long begin = mTaskStats.begin();
+					mElements = Utils.getIDsFromLayout(mLayout);
+					mTaskStats.end("id scan", begin);
+					mTaskStats.count("elements", mElements.size());
+
+					PsiClass clazz = mTargetClass;
+					if (clazz != null) {
+						begin = mTaskStats.begin();
+						mCreateHolder = Utils.isAdapter(clazz);
+						// get already generated injections
+						//获取已经生成的注解
+						mIds = BoundIds.get(clazz);
+						mTaskStats.end("binding detection", begin);
+						mTaskStats.count("bound ids", mIds.size());
+					}
+
+					return null;
+				}
+			});
+		}
+
+		@Override
+		public void onSuccess() {
+			if (myProject.isDisposed() || mEditor.isDisposed()) {
+				mTaskStats.finish();
+				return;
+			}
+
+			if (mElements != null && !mElements.isEmpty()) {
+				//存在id则显示dialog
+				finishStats(); // previous dialog left open
+				mStats = mTaskStats;
+				InjectAction.this.mFile = mFile;
+				InjectAction.this.mLayout = mLayout;
+				InjectAction.this.mClass = mTargetClass;
+				showDialog(myProject, mEditor, mElements, mIds, mCreateHolder);
+			} else {
+				mTaskStats.finish();
+				Utils.showErrorNotification(myProject, "No IDs found in layout");
+			}
+		}
+
+		@Override
+		public void onCancel() {
+			mTaskStats.finish();
+		}
+	}
 }
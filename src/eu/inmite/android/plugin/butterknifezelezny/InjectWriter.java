@@ -2,14 +2,30 @@ package eu.inmite.android.plugin.butterknifezelezny;
 
 import com.intellij.codeInsight.actions.ReformatAndOptimizeImportsProcessor;
 import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.*;
+import com.intellij.psi.codeStyle.CodeStyleManager;
 import com.intellij.psi.codeStyle.JavaCodeStyleManager;
+import com.intellij.psi.javadoc.PsiDocComment;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.psi.util.PsiTreeUtil;
+import eu.inmite.android.plugin.butterknifezelezny.common.CodeGenerator;
 import eu.inmite.android.plugin.butterknifezelezny.common.Defintions;
+import eu.inmite.android.plugin.butterknifezelezny.common.Stats;
+import eu.inmite.android.plugin.butterknifezelezny.common.Utils;
+import eu.inmite.android.plugin.butterknifezelezny.common.ViewClassResolver;
 import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.Options;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 
 public class InjectWriter extends WriteCommandAction.Simple {
 
@@ -26,20 +42,37 @@ public class InjectWriter extends WriteCommandAction.Simple {
 //    public static final String sViewHolderName = "ButterknifeViewHolder";
     protected String mMethodName;
     protected boolean hasFindViewMethod = false;
+    protected boolean mReformatWholeFile = false;
+    protected boolean mSync = false;
+    protected boolean mRemoveStale = false;
+    protected boolean mBindingClass = false;
+    protected boolean mWireAdapter = true;
+    // members added to class, used to reformat only generated code
+    protected ArrayList<PsiElement> mInserted = new ArrayList<PsiElement>();
+    protected CodeGenerator mGenerator;
+    // timing of phases, writer measures its own invocation unless set by caller
+    protected Stats.Invocation mStats;
 
-    public InjectWriter(PsiFile file, PsiClass clazz, String command, ArrayList<Element> elements, String layoutFileName, String fieldNamePrefix, boolean createHolder, String holderClassName, String methodName) {
+    public InjectWriter(PsiFile file, PsiClass clazz, String command, ArrayList<Element> elements, String layoutFileName, String fieldNamePrefix, Options options) {
         super(clazz.getProject(), command);
 
         mFile = file;
         mProject = clazz.getProject();
         mClass = clazz;
         mElements = elements;
+        mGenerator = new CodeGenerator(elements);
+        mGenerator.setTypes(ViewClassResolver.getInstance(mProject).resolve(elements));
         mFactory = JavaPsiFacade.getElementFactory(mProject);
         mLayoutFileName = layoutFileName;
         mFieldNamePrefix = fieldNamePrefix;
-        mCreateHolder = createHolder;
-        mHolderClassName = holderClassName;
-        mMethodName = methodName;
+        mCreateHolder = options.createHolder;
+        mHolderClassName = options.holderClassName;
+        mMethodName = options.methodName;
+        mReformatWholeFile = options.reformatWholeFile;
+        mSync = options.sync;
+        mRemoveStale = options.removeStale;
+        mBindingClass = options.bindingClass;
+        mWireAdapter = options.wireAdapter;
         hasFindViewMethod = checkHasFindViewMethod(mClass);
     }
 
@@ -60,161 +93,626 @@ public class InjectWriter extends WriteCommandAction.Simple {
 
     @Override
     public void run() throws Throwable {
-        if (mCreateHolder) {
+        boolean own = mStats == null;
+        if (own) {
+            mStats = Stats.start(mClass.getName());
+        }
+
+        try {
+            write();
+        } finally {
+            if (own) {
+                mStats.finish();
+                mStats = null;
+            }
+        }
+    }
+
+    private void write() {
+        long begin = mStats.begin();
+        if (mBindingClass) {
+            generateBinding();
+        } else if (mSync && generateSync()) {
+            // existing method was patched
+        } else if (mCreateHolder) {
             generateAdapter();
         } else {
             generateFields();
         }
-        // reformat class
+        if (mCreateHolder && !mBindingClass && mWireAdapter) {
+            generateAdapterMethods();
+        }
+        mStats.end("psi insertion", begin);
+        mStats.count("members inserted", mInserted.size());
+
+        if (mReformatWholeFile) {
+            // reformat class
+            begin = mStats.begin();
+            JavaCodeStyleManager styleManager = JavaCodeStyleManager.getInstance(mProject);
+            styleManager.optimizeImports(mFile);
+            styleManager.shortenClassReferences(mClass);
+            mStats.end("import optimization", begin);
+
+            begin = mStats.begin();
+            new ReformatAndOptimizeImportsProcessor(mProject, mClass.getContainingFile(), false).runWithoutProgress();
+            mStats.end("reformat", begin);
+        } else {
+            reformatInserted();
+        }
+    }
+
+    /**
+     * Shorten references and reformat only members added by generator
+     */
+    protected void reformatInserted() {
         JavaCodeStyleManager styleManager = JavaCodeStyleManager.getInstance(mProject);
-        styleManager.optimizeImports(mFile);
-        styleManager.shortenClassReferences(mClass);
 
-        new ReformatAndOptimizeImportsProcessor(mProject, mClass.getContainingFile(), false).runWithoutProgress();
+        long begin = mStats.begin();
+        for (int i = 0; i < mInserted.size(); i++) {
+            PsiElement element = mInserted.get(i);
+            if (element != null && element.isValid()) {
+                mInserted.set(i, styleManager.shortenClassReferences(element));
+            }
+        }
+        mStats.end("import optimization", begin);
+
+        // imports may be added while shortening, so ranges are computed afterwards
+        ArrayList<TextRange> ranges = new ArrayList<TextRange>();
+        for (PsiElement element : mInserted) {
+            if (element != null && element.isValid()) {
+                ranges.add(element.getTextRange());
+            }
+        }
+        if (ranges.isEmpty()) {
+            return;
+        }
+        Collections.sort(ranges, new Comparator<TextRange>() {
+
+            @Override
+            public int compare(TextRange a, TextRange b) {
+                return b.getStartOffset() - a.getStartOffset();
+            }
+        });
+
+        // from the last range, so formatting doesn't move ranges not formatted yet; user code between them is untouched
+        String text = mClass.getContainingFile().getText();
+        CodeStyleManager codeStyleManager = CodeStyleManager.getInstance(mProject);
+        begin = mStats.begin();
+        TextRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            TextRange previous = ranges.get(i);
+            int gap = Math.min(previous.getEndOffset(), current.getStartOffset());
+            if (text.substring(gap, current.getStartOffset()).trim().length() == 0) {
+                current = current.union(previous); // members inserted next to each other
+            } else {
+                codeStyleManager.reformatRange(mClass, current.getStartOffset(), current.getEndOffset());
+                current = previous;
+            }
+        }
+        codeStyleManager.reformatRange(mClass, current.getStartOffset(), current.getEndOffset());
+        mStats.end("reformat", begin);
     }
 
     /**
-     * Create ViewHolder for adapters with injections
+     * Record phases into invocation measured by caller
+     *
+     * @param stats
      */
-    protected void generateAdapter() {
-        // view holder class
-        StringBuilder holderBuilder = new StringBuilder();
-        holderBuilder.append(mHolderClassName);
-        holderBuilder.append("(android.view.View view) {");
-        holderBuilder.append(mMethodName);
-        holderBuilder.append("(view);");
-        holderBuilder.append("}");
+    public void setStats(Stats.Invocation stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Patch existing init method - add only missing fields and assignments, optionally remove stale ones
+     *
+     * @return false if there is no method to patch
+     */
+    protected boolean generateSync() {
+        PsiClass target = mClass;
+        if (mCreateHolder) {
+            target = mClass.findInnerClassByName(mHolderClassName, false);
+            if (target == null) {
+                return false;
+            }
+        }
 
-        PsiClass viewHolder = mFactory.createClassFromText(holderBuilder.toString(), mClass);
-        viewHolder.setName(mHolderClassName);
+        PsiMethod[] methods = target.findMethodsByName(mMethodName, false);
+        if (methods.length == 0 || methods[0].getBody() == null) {
+            return false;
+        }
+        PsiMethod method = methods[0];
+        PsiCodeBlock body = method.getBody();
+        PsiParameter[] parameters = method.getParameterList().getParameters();
+        String root = parameters.length > 0 ? parameters[0].getName() : null;
 
-        List<StringBuilder> fields = createViewFields();
-        for (StringBuilder field : fields) {
-            viewHolder.add(mFactory.createFieldFromText(field.toString(), viewHolder));
+        // IDs in current layout
+        HashSet<String> layoutIDs = new HashSet<String>();
+        for (Element element : mElements) {
+            layoutIDs.add(element.getFullID());
         }
-        viewHolder.add(mFactory.createMethodFromText(createMethod(mMethodName).toString(), viewHolder));
-        mClass.add(viewHolder);
-        mClass.addBefore(mFactory.createKeyword("static", mClass), mClass.findInnerClassByName(mHolderClassName, true));
+
+        // IDs already assigned in method, with their fields
+        HashMap<String, String> boundIDs = new HashMap<String, String>();
+        for (PsiStatement statement : body.getStatements()) {
+            PsiAssignmentExpression assignment = getFindViewAssignment(statement);
+            if (assignment == null) {
+                continue;
+            }
+
+            String id = Utils.getFindViewID(getFindViewCall(assignment));
+            if (layoutIDs.contains(id)) {
+                boundIDs.put(id, assignment.getLExpression().getText());
+            } else if (mRemoveStale) {
+                removeStale(target, statement, assignment);
+            }
+        }
+
+        StringBuilder fields = new StringBuilder();
+        StringBuilder statements = new StringBuilder();
+        String lazyRoot = root == null ? null : CodeGenerator.sRootField;
+        reserveMethods(target, false); // own methods of that name are getters generated before
+        for (Element element : mElements) {
+            if (!element.used || boundIDs.containsKey(element.getFullID())) {
+                continue;
+            }
+
+            if (target.findFieldByName(element.fieldName, false) == null) {
+                fields.append(mGenerator.createViewField(element));
+            }
+            if (!element.lazy) {
+                // search in container if it's already bound in method
+                String container = element.container == null ? null : boundIDs.get(element.container);
+                mGenerator.createInitView(statements, element, container != null ? container : root);
+            } else if (target.findMethodsByName(mGenerator.getGetterName(element), false).length == 0) {
+                fields.append(mGenerator.createLazyGetter(element, lazyRoot));
+            }
+        }
+        if (lazyRoot != null && mGenerator.hasLazy() && target.findFieldByName(lazyRoot, false) == null) {
+            // lazy getters need root passed to init method
+            fields.append("private android.view.View ");
+            fields.append(lazyRoot);
+            fields.append(";");
+            statements.insert(0, "this." + lazyRoot + "=" + root + ";");
+        }
+
+        // holders of repeated includes
+        HashSet<String> holders = new HashSet<String>();
+        for (PsiClass inner : target.getInnerClasses()) {
+            holders.add(inner.getName());
+        }
+        fields.append(mGenerator.createScopeHolders(holders));
+
+        if (fields.length() > 0) {
+            PsiClass dummy = mFactory.createClassFromText(fields.toString(), target);
+            insertRange(target, dummy.getLBrace(), dummy.getRBrace(), method);
+        }
+        if (statements.length() > 0) {
+            PsiCodeBlock block = mFactory.createCodeBlockFromText("{" + statements + "}", method);
+            insertRange(body, block.getLBrace(), block.getRBrace(), body.getRBrace());
+        }
+
+        return true;
+    }
+
+    /**
+     * Let generator avoid names of methods the lazy getters would clash with (eg. Activity.getTitle, Fragment.getView)
+     *
+     * @param clazz class getters are added to, or superclass of new class; may be null if it's not resolved
+     * @param own   reserve methods declared by the class itself too, not only inherited ones
+     */
+    private void reserveMethods(PsiClass clazz, boolean own) {
+        if (clazz == null || !mGenerator.hasLazy()) {
+            return;
+        }
+
+        HashSet<String> names = new HashSet<String>();
+        for (PsiMethod method : clazz.getAllMethods()) {
+            if (own || method.getContainingClass() != clazz) {
+                names.add(method.getName());
+            }
+        }
+        mGenerator.setReservedMethods(names);
+    }
+
+    /**
+     * Remove assignment of view which is no longer in layout together with its field
+     *
+     * @param target
+     * @param statement
+     * @param assignment
+     */
+    private void removeStale(PsiClass target, PsiStatement statement, PsiAssignmentExpression assignment) {
+        PsiExpression left = assignment.getLExpression();
+        if (left instanceof PsiReferenceExpression) {
+            PsiElement resolved = ((PsiReferenceExpression) left).resolve();
+            if (resolved instanceof PsiField && ((PsiField) resolved).getContainingClass() == target) {
+                resolved.delete();
+            }
+        }
+
+        statement.delete();
     }
 
     /**
-     * 创建一个初始化View的方法
+     * Get assignment of findViewById result in statement (eg. text = (TextView) findViewById(R.id.text);)
      *
-     * @param methodName 方法名
+     * @param statement
      * @return
      */
-    private StringBuilder createMethod(String methodName) {
-        return createMethod(methodName, "android.view.View root");
+    private PsiAssignmentExpression getFindViewAssignment(PsiStatement statement) {
+        if (!(statement instanceof PsiExpressionStatement)) {
+            return null;
+        }
+
+        PsiExpression expression = ((PsiExpressionStatement) statement).getExpression();
+        if (!(expression instanceof PsiAssignmentExpression)) {
+            return null;
+        }
+
+        PsiAssignmentExpression assignment = (PsiAssignmentExpression) expression;
+        if (getFindViewCall(assignment) == null) {
+            return null;
+        }
+
+        return assignment;
+    }
+
+    private PsiMethodCallExpression getFindViewCall(PsiAssignmentExpression assignment) {
+        PsiExpression right = assignment.getRExpression();
+        while (right instanceof PsiTypeCastExpression || right instanceof PsiParenthesizedExpression) {
+            if (right instanceof PsiTypeCastExpression) {
+                right = ((PsiTypeCastExpression) right).getOperand();
+            } else {
+                right = ((PsiParenthesizedExpression) right).getExpression();
+            }
+        }
+
+        if (right instanceof PsiMethodCallExpression && Utils.getFindViewID((PsiMethodCallExpression) right) != null) {
+            return (PsiMethodCallExpression) right;
+        }
+
+        return null;
     }
 
     /**
-     * @param methodName 方法名
-     * @param args       参数
+     * Create or regenerate binding class of layout and let main class hold its instance
+     */
+    protected void generateBinding() {
+        String className = CodeGenerator.getBindingClassName(mLayoutFileName);
+        PsiMethod[] methods = mClass.findMethodsByName(mMethodName, false);
+        if (methods.length > 0 && !isBindingCalled(methods[0], className)) {
+            // field of binding would never be assigned, views stay initialized by existing method
+            Utils.showErrorNotification(mProject, mMethodName + " already initializes views, remove it to use " + className);
+            return;
+        }
+
+        PsiClass rClass = JavaPsiFacade.getInstance(mProject).getResolveHelper().resolveReferencedClass("R", mClass);
+        String text = mGenerator.createBindingClass(className, mLayoutFileName, rClass == null ? null : rClass.getQualifiedName()).toString();
+        PsiClass binding = mFactory.createClassFromText(text, mClass).getInnerClasses()[0];
+
+        // layout has one binding class shared by all classes using it
+        PsiClass existing = findBindingClass(className);
+        PsiElement written;
+        if (existing != null) {
+            written = existing.replace(binding);
+        } else {
+            PsiDirectory directory = mFile.getContainingDirectory();
+            if (directory == null) {
+                return;
+            }
+            if (directory.findFile(className + ".java") != null) {
+                Utils.showErrorNotification(mProject, className + ".java exists and was not generated for " + mLayoutFileName);
+                return;
+            }
+
+            StringBuilder fileText = new StringBuilder();
+            if (mFile instanceof PsiJavaFile && ((PsiJavaFile) mFile).getPackageName().length() > 0) {
+                fileText.append("package ");
+                fileText.append(((PsiJavaFile) mFile).getPackageName());
+                fileText.append(";\n\n");
+            }
+            fileText.append(text);
+
+            PsiFile file = PsiFileFactory.getInstance(mProject).createFileFromText(className + ".java", StdFileTypes.JAVA, fileText);
+            written = ((PsiJavaFile) directory.add(file)).getClasses()[0];
+        }
+
+        written = JavaCodeStyleManager.getInstance(mProject).shortenClassReferences(written);
+        CodeStyleManager.getInstance(mProject).reformat(written);
+
+        // main class keeps only instance of binding
+        String bindingName = ((PsiClass) written).getQualifiedName();
+        if (bindingName == null) {
+            bindingName = className;
+        }
+        String fieldName = Character.toLowerCase(className.charAt(0)) + className.substring(1);
+
+        if (mClass.findFieldByName(fieldName, false) == null) {
+            mInserted.add(mClass.add(mFactory.createFieldFromText(mGenerator.createBindingField(bindingName, fieldName).toString(), mClass)));
+        }
+        if (methods.length == 0) {
+            String method = mGenerator.createBindingMethod(mMethodName, bindingName, fieldName, !hasFindViewMethod).toString();
+            mInserted.add(mClass.add(mFactory.createMethodFromText(method, mClass)));
+        }
+    }
+
+    /**
+     * Find existing binding class in project
+     *
+     * @param className
+     * @return null if there is none yet
+     */
+    private PsiClass findBindingClass(String className) {
+        if (!DumbService.isDumb(mProject)) {
+            for (PsiClass clazz : PsiShortNamesCache.getInstance(mProject).getClassesByName(className, GlobalSearchScope.projectScope(mProject))) {
+                if (clazz.isWritable() && isGeneratedBinding(clazz)) {
+                    return clazz;
+                }
+            }
+        }
+
+        PsiDirectory directory = mFile.getContainingDirectory();
+        PsiFile file = directory == null ? null : directory.findFile(className + ".java");
+        if (file instanceof PsiJavaFile && ((PsiJavaFile) file).getClasses().length > 0 && isGeneratedBinding(((PsiJavaFile) file).getClasses()[0])) {
+            return ((PsiJavaFile) file).getClasses()[0];
+        }
+
+        return null;
+    }
+
+    /**
+     * Is variable referenced from anonymous or local class, so it has to stay final
+     *
+     * @param variable
+     * @param scope
      * @return
      */
-    private StringBuilder createMethod(String methodName, String... args) {
-        //创建一个方法
-        StringBuilder method = new StringBuilder();
-        method.append("private void ");
-        method.append(methodName);
-        method.append("(");
-        if (args != null) {
-            for (int i = 0; i < args.length; i++) {
-                String arg = args[i];
-                method.append(arg);
-                if (i != args.length - 1) {
-                    method.append(",");
+    private boolean isUsedInInnerClass(PsiVariable variable, PsiElement scope) {
+        for (PsiClass inner : PsiTreeUtil.findChildrenOfType(scope, PsiClass.class)) {
+            for (PsiReferenceExpression reference : PsiTreeUtil.findChildrenOfType(inner, PsiReferenceExpression.class)) {
+                if (reference.isReferenceTo(variable)) {
+                    return true;
                 }
             }
         }
-        method.append(")");
-        method.append("{");
-        method.append(createInitViews(args != null));
-        method.append("}");
-        return method;
+        return false;
     }
 
     /**
-     * 生成View初始化内容
+     * Does init method create instance of binding class (eg. views = ItemViews.bind(root))
      *
+     * @param method
+     * @param className simple name of binding class
      * @return
      */
-    private StringBuilder createInitViews(boolean hasParams) {
-        StringBuilder s = new StringBuilder();
-        for (Element element : mElements) {
-            //不使用
-            if (!element.used) continue;
-
-            s.append(element.fieldName);
-            s.append("=(");
-            if (element.nameFull != null && element.nameFull.length() > 0) { // custom package+class
-                s.append(element.nameFull);
-            } else if (Defintions.paths.containsKey(element.name)) { // listed class
-                s.append(Defintions.paths.get(element.name));
-            } else { // android.widget
-                s.append("android.widget.");
-                s.append(element.name);
-            }
-            s.append(")");
-            if (hasParams) {
-                s.append("root");
-                s.append(".");
-            }
-            s.append("findViewById(");
-            String rPrefix;
-            if (element.isAndroidNS) {
-                rPrefix = "android.R.id.";
-            } else {
-                rPrefix = "R.id.";
+    private boolean isBindingCalled(PsiMethod method, String className) {
+        for (PsiMethodCallExpression call : PsiTreeUtil.findChildrenOfType(method, PsiMethodCallExpression.class)) {
+            PsiExpression qualifier = call.getMethodExpression().getQualifierExpression();
+            if ("bind".equals(call.getMethodExpression().getReferenceName()) && qualifier instanceof PsiReferenceExpression
+                    && className.equals(((PsiReferenceExpression) qualifier).getReferenceName())) {
+                return true;
             }
-            s.append(rPrefix);
-            s.append(element.id);
-            s.append(");");
-            s.append("\n");
         }
-        return s;
+        return false;
     }
 
     /**
-     * 生成字段
+     * Was class generated by this plugin for the layout, other classes of the same name are never replaced
      *
+     * @param clazz
      * @return
      */
-    private List<StringBuilder> createViewFields() {
-        ArrayList<StringBuilder> fields = new ArrayList<StringBuilder>();
-        for (Element element : mElements) {
-            //不适用
-            if (!element.used) continue;
-            StringBuilder field = new StringBuilder();
-            field.append("private ");
-            if (element.nameFull != null && element.nameFull.length() > 0) { // custom package+class
-                field.append(element.nameFull);
-            } else if (Defintions.paths.containsKey(element.name)) { // listed class
-                field.append(Defintions.paths.get(element.name));
-            } else { // android.widget
-                field.append("android.widget.");
-                field.append(element.name);
+    private boolean isGeneratedBinding(PsiClass clazz) {
+        PsiDocComment comment = clazz.getDocComment();
+        return comment != null && comment.getText().contains(CodeGenerator.getBindingMarker(mLayoutFileName));
+    }
+
+    /**
+     * Create ViewHolder for adapters with injections, all its members are parsed from one text block
+     */
+    protected void generateAdapter() {
+        String recyclerView = getRecyclerView();
+        String superClass = recyclerView != null ? recyclerView + ".ViewHolder" : CommonClassNames.JAVA_LANG_OBJECT;
+        reserveMethods(JavaPsiFacade.getInstance(mProject).findClass(superClass, mClass.getResolveScope()), true);
+
+        StringBuilder holderBuilder = new StringBuilder();
+        holderBuilder.append("static class ");
+        holderBuilder.append(mHolderClassName);
+        if (recyclerView != null) {
+            holderBuilder.append(" extends ");
+            holderBuilder.append(recyclerView);
+            holderBuilder.append(".ViewHolder");
+        }
+        holderBuilder.append("{");
+        holderBuilder.append(mHolderClassName);
+        holderBuilder.append("(android.view.View view) {");
+        if (recyclerView != null) {
+            holderBuilder.append("super(view);");
+        }
+        holderBuilder.append(mMethodName);
+        holderBuilder.append("(view);");
+        holderBuilder.append("}");
+        for (StringBuilder field : mGenerator.createViewFields()) {
+            holderBuilder.append(field);
+        }
+        holderBuilder.append(mGenerator.createMethod(mMethodName));
+        holderBuilder.append(mGenerator.createLazyMembers(true));
+        holderBuilder.append(mGenerator.createScopeHolders());
+        holderBuilder.append("}");
+
+        PsiClass dummy = mFactory.createClassFromText(holderBuilder.toString(), mClass);
+        mInserted.add(mClass.add(dummy.getInnerClasses()[0]));
+    }
+
+    /**
+     * Wire holder into adapter - getView recycling convertView, or onCreateViewHolder/onBindViewHolder
+     * for RecyclerView adapters. Existing methods are kept, getView is only patched to reuse holder and it is
+     * generated only if no superclass implements it.
+     */
+    protected void generateAdapterMethods() {
+        int extension = mLayoutFileName.lastIndexOf('.');
+        String layout = "R.layout." + (extension > 0 ? mLayoutFileName.substring(0, extension) : mLayoutFileName);
+
+        PsiJavaCodeReferenceElement adapter = Utils.getRecyclerAdapter(mClass);
+        if (adapter != null) {
+            String holder = mClass.getQualifiedName() == null ? mHolderClassName : mClass.getQualifiedName() + "." + mHolderClassName;
+            if (adapter.getTypeParameters().length == 0) { // raw adapter, holder methods wouldn't override
+                mInserted.add(adapter.replace(mFactory.createReferenceFromText(adapter.getQualifiedName() + "<" + holder + ">", mClass)));
+            }
+            if (mClass.findMethodsByName("onCreateViewHolder", false).length == 0) {
+                mInserted.add(mClass.add(mFactory.createMethodFromText(mGenerator.createOnCreateViewHolder(mHolderClassName, layout).toString(), mClass)));
+            }
+            if (mClass.findMethodsByName("onBindViewHolder", false).length == 0) {
+                mInserted.add(mClass.add(mFactory.createMethodFromText(mGenerator.createOnBindViewHolder(mHolderClassName).toString(), mClass)));
+            }
+            return;
+        }
+
+        PsiMethod getView = null;
+        for (PsiMethod method : mClass.findMethodsByName("getView", false)) {
+            if (method.getParameterList().getParametersCount() == 3) {
+                getView = method;
+            }
+        }
+
+        if (getView == null) {
+            if (isGetViewInherited()) {
+                // overriding it would bypass binding of data by superclass
+                Utils.showInfoNotification(mProject, mClass.getName() + " inherits getView, " + mHolderClassName + " was not wired into it");
+                return;
+            }
+            mInserted.add(mClass.add(mFactory.createMethodFromText(mGenerator.createGetView(mHolderClassName, layout).toString(), mClass)));
+            return;
+        }
+
+        PsiCodeBlock body = getView.getBody();
+        if (body == null || body.getText().contains(".getTag()")) {
+            return; // abstract or already recycling
+        }
+        if (body.getText().contains("inflate(")) {
+            // lookup on top of original inflating would inflate twice
+            Utils.showInfoNotification(mProject, "getView already inflates its view, " + mHolderClassName + " was not wired into it");
+            return;
+        }
+
+        PsiParameter[] parameters = getView.getParameterList().getParameters();
+        PsiParameter convertView = parameters[1];
+        if (convertView.hasModifierProperty(PsiModifier.FINAL)) {
+            if (isUsedInInnerClass(convertView, body)) {
+                Utils.showInfoNotification(mProject, "convertView of getView is final, " + mHolderClassName + " was not wired into it");
+                return;
+            }
+            PsiModifierList modifiers = convertView.getModifierList();
+            if (modifiers != null) {
+                modifiers.setModifierProperty(PsiModifier.FINAL, false); // lookup assigns inflated view
+            }
+        }
+
+        // obtain holder at the beginning, original code can use it afterwards
+        String holder = JavaCodeStyleManager.getInstance(mProject).suggestUniqueVariableName("holder", body.getLBrace(), true);
+        String lookup = mGenerator.createHolderLookup(mHolderClassName, holder, layout, convertView.getName(), parameters[2].getName()).toString();
+        PsiCodeBlock block = mFactory.createCodeBlockFromText("{" + lookup + "}", getView);
+        if (body.getLBrace() != null && block.getLBrace() != null && block.getRBrace() != null) {
+            insertRange(body, block.getLBrace(), block.getRBrace(), body.getLBrace().getNextSibling());
+        }
+    }
+
+    /**
+     * Is getView implemented by superclass (eg. ArrayAdapter or CursorAdapter), not only declared by Adapter
+     *
+     * @return
+     */
+    private boolean isGetViewInherited() {
+        for (PsiMethod method : mClass.findMethodsByName("getView", true)) {
+            PsiClass owner = method.getContainingClass();
+            if (method.getParameterList().getParametersCount() == 3 && owner != null && owner != mClass
+                    && !owner.isInterface() && !method.hasModifierProperty(PsiModifier.ABSTRACT)) {
+                return true;
+            }
+        }
+
+        // superclass may be unresolved (eg. no Android SDK), decide by its name
+        PsiReferenceList list = mClass.getExtendsList();
+        if (list != null) {
+            for (PsiJavaCodeReferenceElement element : list.getReferenceElements()) {
+                if (Defintions.boundAdapters.contains(element.getQualifiedName())) {
+                    return true;
+                }
             }
-            field.append(" ");
-            field.append(element.fieldName);
-            field.append(";");
-            fields.add(field);
         }
-        return fields;
+
+        return false;
     }
 
     /**
-     * Create fields for injections inside main class
+     * RecyclerView class whose adapter is extended by main class
+     *
+     * @return fully qualified name, null if main class is not RecyclerView adapter
+     */
+    private String getRecyclerView() {
+        PsiJavaCodeReferenceElement adapter = Utils.getRecyclerAdapter(mClass);
+        if (adapter == null || adapter.getQualifiedName() == null) {
+            return null;
+        }
+
+        String name = adapter.getQualifiedName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /**
+     * Create fields for injections inside main class, fields and init method are inserted as one range
      */
     protected void generateFields() {
-        List<StringBuilder> fields = createViewFields();
-        for (StringBuilder field : fields) {
-            mClass.add(mFactory.createFieldFromText(field.toString(), mClass));
+        reserveMethods(mClass, true);
+        StringBuilder members = new StringBuilder();
+        for (StringBuilder field : mGenerator.createViewFields()) {
+            members.append(field);
         }
         if (checkHasFindViewMethod(mClass)) {
-            mClass.add(mFactory.createMethodFromText(createMethod(mMethodName, null).toString(), mClass));
+            members.append(mGenerator.createMethod(mMethodName, null));
+            members.append(mGenerator.createLazyMembers(false));
+        } else {
+            members.append(mGenerator.createMethod(mMethodName));
+            members.append(mGenerator.createLazyMembers(true));
+        }
+        members.append(mGenerator.createScopeHolders());
+
+        PsiClass dummy = mFactory.createClassFromText(members.toString(), mClass);
+        insertRange(mClass, dummy.getLBrace(), dummy.getRBrace(), mClass.getRBrace());
+    }
+
+    /**
+     * Copy everything between braces of parsed dummy into target before anchor, as one range
+     *
+     * @param target
+     * @param lBrace
+     * @param rBrace
+     * @param anchor may be null to add at the end
+     */
+    private void insertRange(PsiElement target, PsiElement lBrace, PsiElement rBrace, PsiElement anchor) {
+        PsiElement first = lBrace.getNextSibling();
+        PsiElement last = rBrace.getPrevSibling();
+        if (first == null || last == null || first == rBrace) {
+            return; // nothing to insert
+        }
+
+        int count = 1;
+        for (PsiElement element = first; element != last; element = element.getNextSibling()) {
+            count++;
+        }
+
+        PsiElement added;
+        if (anchor != null) {
+            added = target.addRangeBefore(first, last, anchor);
         } else {
-            mClass.add(mFactory.createMethodFromText(createMethod(mMethodName).toString(), mClass));
+            added = target.addRange(first, last);
+        }
+
+        for (int i = 0; i < count && added != null; i++) {
+            if (!(added instanceof PsiWhiteSpace)) {
+                mInserted.add(added);
+            }
+            added = added.getNextSibling();
         }
     }
 }
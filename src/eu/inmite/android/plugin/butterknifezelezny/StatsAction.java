@@ -0,0 +1,70 @@
+package eu.inmite.android.plugin.butterknifezelezny;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.components.JBScrollPane;
+import eu.inmite.android.plugin.butterknifezelezny.common.Stats;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Show timing of recent generator invocations
+ */
+public class StatsAction extends AnAction {
+
+	@Override
+	public void actionPerformed(AnActionEvent event) {
+		Project project = event.getData(PlatformDataKeys.PROJECT);
+
+		StringBuilder text = new StringBuilder();
+		List<Stats.Invocation> history = Stats.getHistory();
+		if (history.isEmpty()) {
+			text.append("No views were initialized yet");
+		}
+		for (Stats.Invocation invocation : history) {
+			text.append(invocation.toString());
+			text.append("\n\n");
+		}
+
+		new StatsDialog(project, text.toString()).show();
+	}
+
+	// classes
+
+	protected static class StatsDialog extends DialogWrapper {
+
+		private final String mText;
+
+		public StatsDialog(Project project, String text) {
+			super(project, false);
+
+			mText = text;
+			setTitle("Recent Invocations");
+			setModal(false);
+			init();
+		}
+
+		@Override
+		protected JComponent createCenterPanel() {
+			JTextArea area = new JTextArea(mText);
+			area.setEditable(false);
+			area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+			area.setCaretPosition(0);
+
+			JBScrollPane scroll = new JBScrollPane(area);
+			scroll.setPreferredSize(new Dimension(420, 480));
+
+			return scroll;
+		}
+
+		@Override
+		protected Action[] createActions() {
+			return new Action[]{getOKAction()};
+		}
+	}
+}
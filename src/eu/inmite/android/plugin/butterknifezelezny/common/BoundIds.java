@@ -0,0 +1,108 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * IDs already bound in class - by findViewById calls or injection annotations.
+ * Result is cached until file containing the class is modified.
+ */
+public class BoundIds {
+
+	private static final Key<CachedValue<Set<String>>> sKey = Key.create("eu.inmite.android.plugin.butterknifezelezny.BoundIds");
+
+	/**
+	 * Get IDs bound in class and its source superclasses (eg. R.id.text)
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	public static Set<String> get(PsiClass clazz) {
+		HashSet<String> ids = new HashSet<String>();
+
+		HashSet<PsiClass> visited = new HashSet<PsiClass>();
+		while (clazz != null && !(clazz instanceof PsiCompiledElement) && visited.add(clazz)) {
+			ids.addAll(getDeclared(clazz));
+			clazz = clazz.getSuperClass();
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Get IDs bound directly in class
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	public static Set<String> getDeclared(final PsiClass clazz) {
+		CachedValue<Set<String>> cached = clazz.getUserData(sKey);
+		if (cached == null) {
+			cached = CachedValuesManager.getManager(clazz.getProject()).createCachedValue(new CachedValueProvider<Set<String>>() {
+
+				@Override
+				public Result<Set<String>> compute() {
+					return Result.create(collect(clazz), clazz.getContainingFile());
+				}
+			}, false);
+			clazz.putUserData(sKey, cached);
+		}
+
+		return cached.getValue();
+	}
+
+	private static Set<String> collect(PsiClass clazz) {
+		final HashSet<String> ids = new HashSet<String>();
+
+		clazz.accept(new JavaRecursiveElementWalkingVisitor() {
+
+			@Override
+			public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+				super.visitMethodCallExpression(expression);
+
+				String id = Utils.getFindViewID(expression);
+				if (id != null) {
+					ids.add(id);
+				}
+			}
+
+			@Override
+			public void visitAnnotation(PsiAnnotation annotation) {
+				ProgressManager.checkCanceled();
+
+				PsiJavaCodeReferenceElement name = annotation.getNameReferenceElement();
+				if (name == null || !Defintions.injections.contains(name.getReferenceName())) {
+					return;
+				}
+
+				PsiAnnotationMemberValue value = annotation.findDeclaredAttributeValue("value");
+				if (value instanceof PsiArrayInitializerMemberValue) { // eg. @Bind({R.id.a, R.id.b})
+					for (PsiAnnotationMemberValue initializer : ((PsiArrayInitializerMemberValue) value).getInitializers()) {
+						addID(initializer);
+					}
+				} else {
+					addID(value);
+				}
+			}
+
+			private void addID(PsiAnnotationMemberValue value) {
+				if (value instanceof PsiExpression) {
+					String id = Utils.getResourceID((PsiExpression) value);
+					if (id != null) {
+						ids.add(id);
+					}
+				}
+			}
+		});
+
+		return Collections.unmodifiableSet(ids);
+	}
+}
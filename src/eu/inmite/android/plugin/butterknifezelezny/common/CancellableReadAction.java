@@ -0,0 +1,64 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.concurrency.SensitiveProgressWrapper;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationAdapter;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Ref;
+
+/**
+ * Runs computation in read action which gives way to write actions.
+ * When some write action is about to start, computation is cancelled and restarted after the write.
+ */
+public class CancellableReadAction {
+
+	/**
+	 * Compute result in background thread, must not be called from EDT
+	 *
+	 * @param indicator   progress of whole task, cancelling it stops the computation
+	 * @param computation should call {@link ProgressManager#checkCanceled()} regularly
+	 * @return
+	 * @throws ProcessCanceledException when indicator was cancelled
+	 */
+	public static <T> T compute(ProgressIndicator indicator, final Computable<T> computation) {
+		final Application application = ApplicationManager.getApplication();
+
+		while (true) {
+			indicator.checkCanceled();
+
+			final ProgressIndicator attempt = new SensitiveProgressWrapper(indicator);
+			ApplicationAdapter listener = new ApplicationAdapter() {
+
+				@Override
+				public void beforeWriteActionStart(Object action) {
+					attempt.cancel(); // don't block the write, start over after it
+				}
+			};
+			final Ref<T> result = new Ref<T>();
+
+			application.addApplicationListener(listener);
+			try {
+				ProgressManager.getInstance().runProcess(new Runnable() {
+
+					@Override
+					public void run() {
+						result.set(application.runReadAction(computation));
+					}
+				}, attempt);
+
+				return result.get();
+			} catch (ProcessCanceledException e) {
+				if (indicator.isCanceled()) {
+					throw e;
+				}
+				// interrupted by write action, PSI may have changed
+			} finally {
+				application.removeApplicationListener(listener);
+			}
+		}
+	}
+}
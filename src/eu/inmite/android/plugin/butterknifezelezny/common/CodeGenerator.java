@@ -0,0 +1,716 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+
+import java.util.*;
+
+/**
+ * Renders source of generated fields and methods. Doesn't depend on IDE, so it can be used
+ * (and measured) without PSI.
+ */
+public class CodeGenerator {
+
+    // field keeping root view for lazy getters
+    public static final String sRootField = "rootView";
+    private static final String sBindingGenerator = "InitViews";
+
+    protected List<Element> mElements;
+    protected Map<String, String> mTypes = Collections.emptyMap();
+    protected Set<String> mReservedMethods = Collections.emptySet();
+
+    public CodeGenerator(List<Element> elements) {
+        mElements = elements;
+    }
+
+    /**
+     * Classes of tags resolved in project
+     *
+     * @param types tag name to fully qualified class
+     */
+    public void setTypes(Map<String, String> types) {
+        mTypes = types;
+    }
+
+    /**
+     * Methods of target class and its superclasses, getters of lazy views don't use their names
+     *
+     * @param names
+     */
+    public void setReservedMethods(Set<String> names) {
+        mReservedMethods = names;
+    }
+
+    /**
+     * 创建一个初始化View的方法
+     *
+     * @param methodName 方法名
+     * @return
+     */
+    public StringBuilder createMethod(String methodName) {
+        return createMethod(methodName, "android.view.View root");
+    }
+
+    /**
+     * @param methodName 方法名
+     * @param args       参数
+     * @return
+     */
+    public StringBuilder createMethod(String methodName, String... args) {
+        //创建一个方法
+        StringBuilder method = new StringBuilder();
+        method.append("private void ");
+        method.append(methodName);
+        method.append("(");
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                method.append(arg);
+                if (i != args.length - 1) {
+                    method.append(",");
+                }
+            }
+        }
+        method.append(")");
+        method.append("{");
+        method.append(createInitViews(args != null));
+        method.append("}");
+        return method;
+    }
+
+    /**
+     * 生成View初始化内容
+     *
+     * @return
+     */
+    public StringBuilder createInitViews(boolean hasParams) {
+        StringBuilder s = new StringBuilder();
+        if (hasParams && hasLazy()) {
+            s.append("this.");
+            s.append(sRootField);
+            s.append("=root;");
+        }
+        createInitViews(s, mElements, hasParams ? "root" : null);
+        return s;
+    }
+
+    /**
+     * Initialize eager views, containers first
+     *
+     * @param s
+     * @param elements
+     * @param root     name of root view variable, null if views are found in class itself
+     */
+    private void createInitViews(StringBuilder s, List<Element> elements, String root) {
+        // views initialized in this method, they can be used as containers of their descendants
+        HashMap<String, Element> all = new HashMap<String, Element>();
+        LinkedHashMap<String, Element> eager = new LinkedHashMap<String, Element>();
+        for (Element element : elements) {
+            if (!all.containsKey(element.getFullID())) {
+                all.put(element.getFullID(), element);
+            }
+            //不使用, lazy views are found by their getters
+            if (!element.used || element.lazy) continue;
+
+            if (!eager.containsKey(element.getFullID())) {
+                eager.put(element.getFullID(), element);
+            }
+        }
+
+        HashSet<String> done = new HashSet<String>();
+        for (Element element : eager.values()) {
+            createScopedInitView(s, element, root, all, eager, done);
+        }
+    }
+
+    /**
+     * Initialize view in its nearest initialized container, container is initialized first
+     *
+     * @param s
+     * @param element
+     * @param root    name of root view variable, null if views are found in class itself
+     * @param all     all views of layout by full ID
+     * @param eager   views initialized in method by full ID
+     * @param done    full IDs of views already initialized
+     */
+    private void createScopedInitView(StringBuilder s, Element element, String root, Map<String, Element> all, Map<String, Element> eager, Set<String> done) {
+        if (!done.add(element.getFullID())) {
+            return;
+        }
+
+        // nearest ancestor which is initialized too
+        String id = element.container;
+        for (int i = 0; id != null && !eager.containsKey(id) && i < all.size(); i++) {
+            Element ancestor = all.get(id);
+            id = ancestor == null ? null : ancestor.container;
+        }
+
+        Element container = id == null ? null : eager.get(id);
+        if (container != null) {
+            createScopedInitView(s, container, root, all, eager, done);
+            root = container.fieldName;
+        }
+
+        createInitView(s, element, root);
+    }
+
+    /**
+     * 生成一个View的初始化语句
+     *
+     * @param s
+     * @param element
+     * @param root      name of root view variable, null if views are found in class itself
+     */
+    public void createInitView(StringBuilder s, Element element, String root) {
+        s.append(element.fieldName);
+        if (element.children != null) { // include bound by its own holder
+            s.append("=new ");
+            s.append(getTypeName(element));
+            s.append("(");
+        } else {
+            s.append("=(");
+            s.append(getTypeName(element));
+            s.append(")");
+        }
+        if (root != null) {
+            s.append(root);
+            s.append(".");
+        }
+        s.append("findViewById(");
+        s.append(element.getFullID());
+        s.append(")");
+        if (element.children != null) {
+            s.append(")");
+        }
+        s.append(";");
+        s.append("\n");
+    }
+
+    /**
+     * Holders of includes repeated in layout, one class per included layout
+     *
+     * @return
+     */
+    public StringBuilder createScopeHolders() {
+        return createScopeHolders(Collections.<String>emptySet());
+    }
+
+    /**
+     * @param existing names of holders which already exist
+     * @return
+     */
+    public StringBuilder createScopeHolders(Set<String> existing) {
+        LinkedHashMap<String, Element> scopes = new LinkedHashMap<String, Element>();
+        collectScopes(mElements, scopes, false);
+
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, Element> scope : scopes.entrySet()) {
+            if (existing.contains(scope.getKey())) continue;
+
+            s.append("static class ");
+            s.append(scope.getKey());
+            s.append("{");
+            for (Element child : scope.getValue().children) {
+                if (!child.used) continue;
+
+                s.append(createViewField(child));
+            }
+            s.append(scope.getKey());
+            s.append("(android.view.View view){");
+            createInitViews(s, scope.getValue().children, "view");
+            s.append("}");
+            s.append("}");
+        }
+        return s;
+    }
+
+    /**
+     * @param elements
+     * @param scopes   output, holder name to include
+     * @param all      include holders of views not selected too
+     */
+    private void collectScopes(List<Element> elements, Map<String, Element> scopes, boolean all) {
+        for (Element element : elements) {
+            if ((!all && !element.used) || element.children == null) continue;
+
+            if (!scopes.containsKey(getTypeName(element))) {
+                scopes.put(getTypeName(element), element);
+            }
+            collectScopes(element.children, scopes, all);
+        }
+    }
+
+    /**
+     * Name of holder class of include (eg. price_row - PriceRowHolder)
+     *
+     * @param element
+     * @return
+     */
+    public static String getScopeHolderName(Element element) {
+        return toCamelCase(element.row.include) + "Holder";
+    }
+
+    /**
+     * Some selected view is looked up lazily
+     *
+     * @return
+     */
+    public boolean hasLazy() {
+        for (Element element : mElements) {
+            if (element.used && element.lazy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getters of lazy views together with field keeping root view
+     *
+     * @param hasRoot views are found in root view passed to init method, not in class itself
+     * @return
+     */
+    public StringBuilder createLazyMembers(boolean hasRoot) {
+        StringBuilder s = new StringBuilder();
+        if (!hasLazy()) {
+            return s;
+        }
+
+        if (hasRoot) {
+            s.append("private android.view.View ");
+            s.append(sRootField);
+            s.append(";");
+        }
+        for (Element element : mElements) {
+            if (!element.used || !element.lazy) continue;
+
+            s.append(createLazyGetter(element, hasRoot ? sRootField : null));
+        }
+        return s;
+    }
+
+    /**
+     * 生成延迟加载的getter, view is found on first access and kept in field
+     *
+     * @param element
+     * @param root    name of root view variable, null if views are found in class itself
+     * @return
+     */
+    public StringBuilder createLazyGetter(Element element, String root) {
+        StringBuilder method = new StringBuilder();
+        method.append("private ");
+        method.append(getTypeName(element));
+        method.append(" ");
+        method.append(getGetterName(element));
+        method.append("(){");
+        method.append("if(");
+        method.append(element.fieldName);
+        method.append("==null){");
+        createInitView(method, element, root);
+        method.append("}");
+        method.append("return ");
+        method.append(element.fieldName);
+        method.append(";");
+        method.append("}");
+        return method;
+    }
+
+    /**
+     * Getter of lazy view (eg. title - getTitle), suffixed if class already has such method (eg. Activity.getTitle - getTitleView)
+     *
+     * @param element
+     * @return
+     */
+    public String getGetterName(Element element) {
+        String base = "get" + Character.toUpperCase(element.fieldName.charAt(0)) + element.fieldName.substring(1);
+
+        String name = base;
+        for (int i = 1; mReservedMethods.contains(name); i++) {
+            name = i == 1 ? base + "View" : base + "View" + i;
+        }
+        return name;
+    }
+
+    /**
+     * Name of binding class for layout (eg. item_product.xml - ItemProductViews),
+     * differs from ItemProductBinding generated by Android data binding
+     *
+     * @param layoutFileName
+     * @return
+     */
+    public static String getBindingClassName(String layoutFileName) {
+        String name = layoutFileName;
+        int dot = name.indexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+
+        return toCamelCase(name) + "Views";
+    }
+
+    /**
+     * Doc comment of binding class, recognizes classes generated by this plugin
+     *
+     * @param layoutFileName
+     * @return
+     */
+    public static String getBindingMarker(String layoutFileName) {
+        return "Views of layout " + layoutFileName + ", generated by " + sBindingGenerator;
+    }
+
+    /**
+     * Field of view in binding class, derived only from ID so all classes using binding see the same names
+     * (eg. price_row - priceRow, android:id/list - androidList)
+     *
+     * @param element
+     * @return
+     */
+    public static String getBindingFieldName(Element element) {
+        String name = toCamelCase(element.isAndroidNS ? "android_" + element.id : element.id);
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String toCamelCase(String name) {
+        StringBuilder className = new StringBuilder();
+        boolean upper = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_') {
+                upper = true;
+            } else {
+                className.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return className.toString();
+    }
+
+    /**
+     * 生成布局绑定类, views are found once in constructor and kept in final fields.
+     * Class is shared by all classes using the layout, so it contains every view regardless of selection.
+     *
+     * @param className      name of binding class
+     * @param layoutFileName
+     * @param rClass         fully qualified R class of application, null to use plain R
+     * @return
+     */
+    public StringBuilder createBindingClass(String className, String layoutFileName, String rClass) {
+        StringBuilder s = new StringBuilder();
+        s.append("/** ");
+        s.append(getBindingMarker(layoutFileName));
+        s.append(" */");
+        s.append("public final class ");
+        s.append(className);
+        s.append("{");
+        List<Element> elements = getDistinct(mElements);
+        String rootField = getRootFieldName(elements);
+        s.append("public final android.view.View ");
+        s.append(rootField);
+        s.append(";");
+        createBindingFields(s, elements, "public final ");
+
+        s.append("private ");
+        s.append(className);
+        s.append("(android.view.View root){");
+        s.append("this.");
+        s.append(rootField);
+        s.append("=root;");
+        createBindingLookups(s, elements, "root", rClass);
+        s.append("}");
+
+        // holders of repeated includes
+        LinkedHashMap<String, Element> scopes = new LinkedHashMap<String, Element>();
+        collectScopes(elements, scopes, true);
+        for (Map.Entry<String, Element> scope : scopes.entrySet()) {
+            List<Element> children = getDistinct(scope.getValue().children);
+            s.append("public static final class ");
+            s.append(scope.getKey());
+            s.append("{");
+            createBindingFields(s, children, "public final ");
+            s.append("private ");
+            s.append(scope.getKey());
+            s.append("(android.view.View view){");
+            createBindingLookups(s, children, "view", rClass);
+            s.append("}");
+            s.append("}");
+        }
+
+        s.append("public static ");
+        s.append(className);
+        s.append(" bind(android.view.View root){");
+        s.append("return new ");
+        s.append(className);
+        s.append("(root);");
+        s.append("}");
+        s.append("}");
+        return s;
+    }
+
+    /**
+     * Views with distinct IDs, layout may repeat ID (eg. in different branches of hierarchy)
+     *
+     * @param elements
+     * @return the first view of every ID
+     */
+    private static List<Element> getDistinct(List<Element> elements) {
+        LinkedHashMap<String, Element> distinct = new LinkedHashMap<String, Element>();
+        for (Element element : elements) {
+            if (!distinct.containsKey(element.getFullID())) {
+                distinct.put(element.getFullID(), element);
+            }
+        }
+
+        return new ArrayList<Element>(distinct.values());
+    }
+
+    /**
+     * Name of field holding root view, "root" unless some view of layout has that ID
+     *
+     * @param elements
+     * @return
+     */
+    private static String getRootFieldName(List<Element> elements) {
+        HashSet<String> names = new HashSet<String>();
+        for (Element element : elements) {
+            names.add(getBindingFieldName(element));
+        }
+
+        String name = "root";
+        for (int i = 1; names.contains(name); i++) {
+            name = i == 1 ? "rootView" : "rootView" + i;
+        }
+
+        return name;
+    }
+
+    private void createBindingFields(StringBuilder s, List<Element> elements, String modifiers) {
+        for (Element element : elements) {
+            s.append(modifiers);
+            s.append(getTypeName(element));
+            s.append(" ");
+            s.append(getBindingFieldName(element));
+            s.append(";");
+        }
+    }
+
+    private void createBindingLookups(StringBuilder s, List<Element> elements, String root, String rClass) {
+        for (Element element : elements) {
+            s.append("this."); // view may have the same ID as parameter (eg. root)
+            s.append(getBindingFieldName(element));
+            if (element.children != null) {
+                s.append("=new ");
+                s.append(getTypeName(element));
+                s.append("(");
+            } else {
+                s.append("=(");
+                s.append(getTypeName(element));
+                s.append(")");
+            }
+            s.append(root);
+            s.append(".findViewById(");
+            if (element.isAndroidNS || rClass == null) {
+                s.append(element.getFullID());
+            } else {
+                s.append(rClass);
+                s.append(".id.");
+                s.append(element.id);
+            }
+            s.append(element.children != null ? "));\n" : ");\n");
+        }
+    }
+
+    /**
+     * Field holding instance of binding class
+     *
+     * @param bindingClass fully qualified binding class
+     * @param fieldName
+     * @return
+     */
+    public StringBuilder createBindingField(String bindingClass, String fieldName) {
+        StringBuilder field = new StringBuilder();
+        field.append("private ");
+        field.append(bindingClass);
+        field.append(" ");
+        field.append(fieldName);
+        field.append(";");
+        return field;
+    }
+
+    /**
+     * Method creating instance of binding class
+     *
+     * @param methodName
+     * @param bindingClass fully qualified binding class
+     * @param fieldName
+     * @param hasRoot      false if class has its own findViewById (eg. Activity)
+     * @return
+     */
+    public StringBuilder createBindingMethod(String methodName, String bindingClass, String fieldName, boolean hasRoot) {
+        StringBuilder method = new StringBuilder();
+        method.append("private void ");
+        method.append(methodName);
+        if (hasRoot) {
+            method.append("(android.view.View root){");
+        } else {
+            method.append("(){");
+        }
+        method.append(fieldName);
+        method.append("=");
+        method.append(bindingClass);
+        if (hasRoot) {
+            method.append(".bind(root);");
+        } else {
+            method.append(".bind(findViewById(android.R.id.content));");
+        }
+        method.append("}");
+        return method;
+    }
+
+    /**
+     * Adapter getView inflating layout only when there is no view to recycle, holder is kept in tag
+     *
+     * @param holderName
+     * @param layout     layout reference (eg. R.layout.item)
+     * @return
+     */
+    public StringBuilder createGetView(String holderName, String layout) {
+        StringBuilder method = new StringBuilder();
+        method.append("@Override ");
+        method.append("public android.view.View getView(int position, android.view.View convertView, android.view.ViewGroup parent){");
+        method.append(createHolderLookup(holderName, "holder", layout, "convertView", "parent"));
+        method.append("return convertView;");
+        method.append("}");
+        return method;
+    }
+
+    /**
+     * Statements inflating view if needed and obtaining its holder into local variable
+     *
+     * @param holderName
+     * @param holder      name of local variable for holder
+     * @param layout      layout reference (eg. R.layout.item)
+     * @param convertView name of recycled view variable
+     * @param parent      name of parent variable
+     * @return
+     */
+    public StringBuilder createHolderLookup(String holderName, String holder, String layout, String convertView, String parent) {
+        StringBuilder s = new StringBuilder();
+        s.append(holderName);
+        s.append(" ");
+        s.append(holder);
+        s.append(";");
+        s.append("if(");
+        s.append(convertView);
+        s.append("==null){");
+        s.append(convertView);
+        s.append("=android.view.LayoutInflater.from(");
+        s.append(parent);
+        s.append(".getContext()).inflate(");
+        s.append(layout);
+        s.append(",");
+        s.append(parent);
+        s.append(",false);");
+        s.append(holder);
+        s.append("=new ");
+        s.append(holderName);
+        s.append("(");
+        s.append(convertView);
+        s.append(");");
+        s.append(convertView);
+        s.append(".setTag(");
+        s.append(holder);
+        s.append(");");
+        s.append("}else{");
+        s.append(holder);
+        s.append("=(");
+        s.append(holderName);
+        s.append(")");
+        s.append(convertView);
+        s.append(".getTag();");
+        s.append("}");
+        return s;
+    }
+
+    /**
+     * RecyclerView adapter method creating holder with inflated layout
+     *
+     * @param holderName
+     * @param layout     layout reference (eg. R.layout.item)
+     * @return
+     */
+    public StringBuilder createOnCreateViewHolder(String holderName, String layout) {
+        StringBuilder method = new StringBuilder();
+        method.append("@Override ");
+        method.append("public ");
+        method.append(holderName);
+        method.append(" onCreateViewHolder(android.view.ViewGroup parent, int viewType){");
+        method.append("android.view.View view=android.view.LayoutInflater.from(parent.getContext()).inflate(");
+        method.append(layout);
+        method.append(",parent,false);");
+        method.append("return new ");
+        method.append(holderName);
+        method.append("(view);");
+        method.append("}");
+        return method;
+    }
+
+    /**
+     * RecyclerView adapter method binding data to recycled holder
+     *
+     * @param holderName
+     * @return
+     */
+    public StringBuilder createOnBindViewHolder(String holderName) {
+        StringBuilder method = new StringBuilder();
+        method.append("@Override ");
+        method.append("public void onBindViewHolder(");
+        method.append(holderName);
+        method.append(" holder, int position){");
+        method.append("}");
+        return method;
+    }
+
+    /**
+     * 生成字段
+     *
+     * @return
+     */
+    public List<StringBuilder> createViewFields() {
+        ArrayList<StringBuilder> fields = new ArrayList<StringBuilder>();
+        for (Element element : mElements) {
+            //不适用
+            if (!element.used) continue;
+            fields.add(createViewField(element));
+        }
+        return fields;
+    }
+
+    public StringBuilder createViewField(Element element) {
+        StringBuilder field = new StringBuilder();
+        field.append("private ");
+        field.append(getTypeName(element));
+        field.append(" ");
+        field.append(element.fieldName);
+        field.append(";");
+        return field;
+    }
+
+    /**
+     * Fully qualified class of view
+     *
+     * @param element
+     * @return
+     */
+    public String getTypeName(Element element) {
+        if (element.children != null) { // holder of include
+            return getScopeHolderName(element);
+        } else if (element.nameFull != null && element.nameFull.length() > 0) { // custom package+class
+            return element.nameFull;
+        } else if (mTypes.containsKey(element.name)) { // resolved class
+            return mTypes.get(element.name);
+        } else if (Defintions.paths.containsKey(element.name)) { // listed class
+            return Defintions.paths.get(element.name);
+        } else { // android.widget
+            return "android.widget." + element.name;
+        }
+    }
+}
@@ -2,15 +2,23 @@ package eu.inmite.android.plugin.butterknifezelezny.common;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 public class Defintions {
 
 	public static final HashMap<String, String> paths = new HashMap<String, String>();
 	public static final ArrayList<String> adapters = new ArrayList<String>();
+	public static final ArrayList<String> recyclerAdapters = new ArrayList<String>();
+	public static final HashSet<String> boundAdapters = new HashSet<String>();
+	public static final HashSet<String> injections = new HashSet<String>();
 
 	static {
 		// special classes; default package is android.widget.*
 		paths.put("WebView", "android.webkit.WebView");
+		paths.put("View", "android.view.View");
+		paths.put("ViewStub", "android.view.ViewStub");
+		paths.put("SurfaceView", "android.view.SurfaceView");
+		paths.put("TextureView", "android.view.TextureView");
 
 		// adapters
 		adapters.add("android.widget.ListAdapter");
@@ -21,5 +29,25 @@ public class Defintions {
 		adapters.add("android.support.v4.widget.CursorAdapter");
 		adapters.add("android.support.v4.widget.SimpleCursorAdapter");
 		adapters.add("android.support.v4.widget.ResourceCursorAdapter");
+
+		// adapters implementing getView themselves (binding data, cursor newView/bindView), it's not overridden
+		boundAdapters.add("android.widget.ArrayAdapter");
+		boundAdapters.add("android.widget.HeaderViewListAdapter");
+		boundAdapters.add("android.widget.SimpleAdapter");
+		boundAdapters.add("android.widget.CursorAdapter");
+		boundAdapters.add("android.widget.SimpleCursorAdapter");
+		boundAdapters.add("android.widget.ResourceCursorAdapter");
+		boundAdapters.add("android.support.v4.widget.CursorAdapter");
+		boundAdapters.add("android.support.v4.widget.SimpleCursorAdapter");
+		boundAdapters.add("android.support.v4.widget.ResourceCursorAdapter");
+
+		// adapters with their own holder recycling
+		recyclerAdapters.add("android.support.v7.widget.RecyclerView.Adapter");
+		recyclerAdapters.add("androidx.recyclerview.widget.RecyclerView.Adapter");
+
+		// injection annotations binding view ID
+		injections.add("InjectView");
+		injections.add("Bind");
+		injections.add("BindView");
 	}
 }
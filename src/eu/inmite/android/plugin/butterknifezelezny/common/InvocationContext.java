@@ -0,0 +1,74 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiFile;
+
+/**
+ * Layout resolved on caret position, cached in editor until document or caret changes
+ */
+public class InvocationContext {
+
+	private static final Key<InvocationContext> sKey = Key.create("eu.inmite.android.plugin.butterknifezelezny.InvocationContext");
+
+	private final PsiFile mFile;
+	private final long mStamp;
+	private final int mOffset;
+	private final PsiFile mLayout;
+
+	private InvocationContext(PsiFile file, long stamp, int offset, PsiFile layout) {
+		mFile = file;
+		mStamp = stamp;
+		mOffset = offset;
+		mLayout = layout;
+	}
+
+	/**
+	 * Get context for current caret position, resolve layout only if document or caret changed
+	 *
+	 * @param editor
+	 * @param file
+	 * @return
+	 */
+	public static InvocationContext get(Editor editor, PsiFile file) {
+		long stamp = editor.getDocument().getModificationStamp();
+		int offset = editor.getCaretModel().getOffset();
+
+		InvocationContext context = editor.getUserData(sKey);
+		if (context != null && context.isValid(file, stamp, offset)) {
+			return context;
+		}
+
+		context = new InvocationContext(file, stamp, offset, Utils.getLayoutFileFromCaret(editor, file));
+		editor.putUserData(sKey, context);
+
+		return context;
+	}
+
+	/**
+	 * Shortcut for layout on caret position
+	 *
+	 * @param editor
+	 * @param file
+	 * @return
+	 */
+	public static PsiFile getLayout(Editor editor, PsiFile file) {
+		if (editor == null || file == null) {
+			return null;
+		}
+
+		return get(editor, file).getLayout();
+	}
+
+	public PsiFile getLayout() {
+		return mLayout;
+	}
+
+	private boolean isValid(PsiFile file, long stamp, int offset) {
+		if (mFile != file || mStamp != stamp || mOffset != offset) {
+			return false;
+		}
+
+		return mLayout == null || mLayout.isValid();
+	}
+}
@@ -0,0 +1,577 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.*;
+import com.intellij.psi.*;
+import com.intellij.util.Alarm;
+import eu.inmite.android.plugin.butterknifezelezny.index.LayoutIdIndex;
+import eu.inmite.android.plugin.butterknifezelezny.model.LayoutId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of layout IDs composed transitively through includes.
+ * Every layout is resolved and scanned once per modification stamp, cyclic includes are skipped.
+ * Edited layouts and layouts including them are recomposed in background shortly after the edit.
+ */
+public class LayoutCache {
+
+	private static final Logger sLog = Logger.getInstance(LayoutCache.class);
+	private static final int sRefreshDelay = 500; // ms, bursts of edits are refreshed at once
+
+	private final Project mProject;
+	private final ConcurrentHashMap<VirtualFile, Node> mNodes = new ConcurrentHashMap<VirtualFile, Node>();
+	// reverse include graph - layout to layouts including it
+	private final ConcurrentHashMap<VirtualFile, Set<VirtualFile>> mIncluders = new ConcurrentHashMap<VirtualFile, Set<VirtualFile>>();
+	private final LinkedHashSet<VirtualFile> mChanged = new LinkedHashSet<VirtualFile>();
+	private final Alarm mAlarm;
+	private volatile ProgressIndicator mRefreshIndicator;
+
+	public LayoutCache(Project project) {
+		mProject = project;
+		mAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, project);
+
+		PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+
+			@Override
+			public void childAdded(PsiTreeChangeEvent event) {
+				changed(event.getFile());
+			}
+
+			@Override
+			public void childRemoved(PsiTreeChangeEvent event) {
+				changed(event.getFile());
+			}
+
+			@Override
+			public void childReplaced(PsiTreeChangeEvent event) {
+				changed(event.getFile());
+			}
+
+			@Override
+			public void childMoved(PsiTreeChangeEvent event) {
+				changed(event.getFile());
+			}
+
+			@Override
+			public void childrenChanged(PsiTreeChangeEvent event) {
+				changed(event.getFile());
+			}
+		}, project);
+
+		project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+
+			@Override
+			public void after(List<? extends VFileEvent> events) {
+				for (VFileEvent event : events) {
+					if (event instanceof VFileContentChangeEvent) { // changed outside of IDE
+						changed(((VFileContentChangeEvent) event).getFile());
+					} else if (event instanceof VFileDeleteEvent) {
+						VirtualFile file = ((VFileDeleteEvent) event).getFile();
+						if (mNodes.remove(file) != null) {
+							changed(file); // includers have to be refreshed
+						}
+					} else if (event instanceof VFileCreateEvent) {
+						forgetIncludes(((VFileCreateEvent) event).getChildName());
+					} else if (event instanceof VFileCopyEvent) {
+						forgetIncludes(((VFileCopyEvent) event).getNewChildName());
+					} else if (event instanceof VFileMoveEvent) {
+						forgetIncludes(((VFileMoveEvent) event).getFile().getName());
+					} else if (event instanceof VFilePropertyChangeEvent) {
+						VFilePropertyChangeEvent change = (VFilePropertyChangeEvent) event;
+						if (VirtualFile.PROP_NAME.equals(change.getPropertyName())) {
+							forgetIncludes((String) change.getOldValue());
+							forgetIncludes((String) change.getNewValue());
+						}
+					}
+				}
+			}
+		});
+	}
+
+	public static LayoutCache getInstance(Project project) {
+		return ServiceManager.getService(project, LayoutCache.class);
+	}
+
+	/**
+	 * Obtain all rows with ID from layout and layouts included in it
+	 *
+	 * @param layout
+	 * @return
+	 */
+	public List<LayoutId> getIds(PsiFile layout) {
+		VirtualFile file = layout.getVirtualFile();
+		if (file == null) { // in-memory file, nothing to cache
+			ArrayList<LayoutId> rows = new ArrayList<LayoutId>();
+			for (LayoutId row : Utils.getLayoutIds(layout)) {
+				if (row.hasId()) {
+					rows.add(row);
+				}
+			}
+			return rows;
+		}
+
+		Node node = getNode(file, layout);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+
+		Composed composed = node.composed; // read once, it's replaced concurrently
+		if (isValid(composed)) {
+			return composed.rows;
+		}
+
+		ArrayList<LayoutId> rows = new ArrayList<LayoutId>();
+		compose(file, node, new HashSet<VirtualFile>(), rows, new HashMap<VirtualFile, Long>());
+
+		return rows;
+	}
+
+	/**
+	 * Full IDs (eg. R.id.text) of layout and layouts included in it, cheap when layout wasn't modified
+	 *
+	 * @param layout
+	 * @return
+	 */
+	public Set<String> getFullIds(PsiFile layout) {
+		List<LayoutId> rows = getIds(layout);
+
+		VirtualFile file = layout.getVirtualFile();
+		Node node = file == null ? null : mNodes.get(file);
+		Composed composed = node == null ? null : node.composed;
+		if (composed != null && composed.rows == rows) {
+			return composed.ids;
+		}
+
+		return Composed.collectIds(rows);
+	}
+
+	/**
+	 * Drop everything cached
+	 */
+	public void clear() {
+		mNodes.clear();
+		mIncluders.clear();
+	}
+
+	/**
+	 * Layout file appeared or disappeared under the name, includes of that name are resolved again
+	 *
+	 * @param fileName
+	 */
+	private void forgetIncludes(String fileName) {
+		if (fileName == null || !fileName.endsWith(".xml")) {
+			return;
+		}
+
+		String name = FileUtil.getNameWithoutExtension(fileName);
+		for (Node node : mNodes.values()) {
+			if (node.forgetInclude(name)) {
+				invalidate(node.file);
+				changed(node.file);
+			}
+		}
+	}
+
+	/**
+	 * Drop composition of layout and all layouts including it, their stamps didn't change
+	 *
+	 * @param file
+	 */
+	private void invalidate(VirtualFile file) {
+		HashSet<VirtualFile> visited = new HashSet<VirtualFile>();
+		LinkedList<VirtualFile> queue = new LinkedList<VirtualFile>();
+		queue.add(file);
+		while (!queue.isEmpty()) {
+			VirtualFile current = queue.removeFirst();
+			if (!visited.add(current)) {
+				continue;
+			}
+
+			Node node = mNodes.get(current);
+			if (node != null) {
+				node.composed = null;
+			}
+			Set<VirtualFile> includers = mIncluders.get(current);
+			if (includers != null) {
+				queue.addAll(includers);
+			}
+		}
+	}
+
+	private void changed(PsiFile file) {
+		if (file != null) {
+			changed(file.getVirtualFile());
+		}
+	}
+
+	/**
+	 * Schedule refresh of layout and layouts including it, previous scheduled refresh is postponed
+	 *
+	 * @param file
+	 */
+	private void changed(VirtualFile file) {
+		if (file == null || !(mNodes.containsKey(file) || mIncluders.containsKey(file)) || !LayoutIdIndex.isLayoutFile(file)) {
+			return; // layout wasn't used yet, nothing to refresh
+		}
+
+		synchronized (mChanged) {
+			mChanged.add(file);
+		}
+
+		ProgressIndicator running = mRefreshIndicator;
+		if (running != null) {
+			running.cancel(); // it would read outdated PSI, start over
+		}
+		mAlarm.cancelAllRequests();
+		mAlarm.addRequest(new Runnable() {
+
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, sRefreshDelay);
+	}
+
+	/**
+	 * Recompose changed layouts and all layouts which include them transitively
+	 */
+	private void refresh() {
+		ArrayList<VirtualFile> changed;
+		synchronized (mChanged) {
+			changed = new ArrayList<VirtualFile>(mChanged);
+			mChanged.clear();
+		}
+
+		// includes first, so includers reuse their fresh composition
+		LinkedHashSet<VirtualFile> affected = new LinkedHashSet<VirtualFile>();
+		LinkedList<VirtualFile> queue = new LinkedList<VirtualFile>(changed);
+		while (!queue.isEmpty()) {
+			VirtualFile file = queue.removeFirst();
+			if (affected.add(file)) {
+				Set<VirtualFile> includers = mIncluders.get(file);
+				if (includers != null) {
+					queue.addAll(includers);
+				}
+			}
+		}
+
+		ProgressIndicator indicator = new EmptyProgressIndicator();
+		mRefreshIndicator = indicator;
+		try {
+			for (final VirtualFile file : affected) {
+				if (mProject.isDisposed()) {
+					return;
+				}
+
+				CancellableReadAction.compute(indicator, new Computable<Object>() {
+
+					@Override
+					public Object compute() {
+						if (!file.isValid()) {
+							mIncluders.remove(file);
+							return null;
+						}
+
+						PsiFile psiFile = PsiManager.getInstance(mProject).findFile(file);
+						if (psiFile != null) {
+							getIds(psiFile);
+						}
+						return null;
+					}
+				});
+			}
+		} catch (ProcessCanceledException e) {
+			// newer edit came, it will schedule refresh again
+			synchronized (mChanged) {
+				mChanged.addAll(changed);
+			}
+		} finally {
+			if (mRefreshIndicator == indicator) {
+				mRefreshIndicator = null;
+			}
+		}
+	}
+
+	/**
+	 * Compose IDs of layout and its includes
+	 *
+	 * @param file    layout being composed
+	 * @param node    cached scan of the layout
+	 * @param path    layouts on current include path, used to detect cycles
+	 * @param rows    output
+	 * @param stamps  output, stamps of all layouts which were used
+	 * @return false if some include was skipped because of cycle
+	 */
+	private boolean compose(VirtualFile file, Node node, Set<VirtualFile> path, List<LayoutId> rows, Map<VirtualFile, Long> stamps) {
+		path.add(file);
+		stamps.put(file, node.stamp);
+
+		boolean complete = true;
+		int start = rows.size();
+		HashMap<VirtualFile, Long> ownStamps = new HashMap<VirtualFile, Long>();
+		ownStamps.put(file, node.stamp);
+
+		for (LayoutId row : node.rows) {
+			if (row.isInclude()) {
+				ProgressManager.checkCanceled();
+				VirtualFile includeFile = node.resolveInclude(row.include);
+
+				if (includeFile != null) {
+					addIncluder(includeFile, file);
+
+					if (path.contains(includeFile)) {
+						sLog.warn("Cyclic include of " + includeFile.getName() + " in " + file.getName());
+						complete = false;
+
+						continue;
+					}
+
+					Node include = getNode(includeFile, null);
+					if (include != null) {
+						Stats.count("includes visited", 1);
+						int includeStart = rows.size();
+						Composed composed = include.composed;
+						if (isValid(composed)) {
+							rows.addAll(composed.rows);
+							ownStamps.putAll(composed.stamps);
+						} else {
+							HashMap<VirtualFile, Long> includeStamps = new HashMap<VirtualFile, Long>();
+							complete &= compose(includeFile, include, path, rows, includeStamps);
+							ownStamps.putAll(includeStamps);
+						}
+
+						if (row.hasId() && node.repeated.contains(row.include)) {
+							// layout included more times, each instance is bound separately in its own scope;
+							// included root takes the include ID, so it's the scope view itself and its children are found in it
+							LayoutId root = include.getRoot();
+							String rootID = root == null ? null : root.getFullID();
+							for (int i = includeStart; i < rows.size(); i++) {
+								LayoutId included = rows.get(i);
+								if (included.scope != null) {
+									continue; // nested scope
+								}
+								if (rootID != null && included.parent == null && included.getFullID() == rootID) { // interned
+									rows.remove(i--);
+									continue;
+								}
+								if (rootID != null && included.parent == rootID) {
+									included = included.withParent(null);
+								}
+								rows.set(i, included.withScope(row.getFullID()));
+							}
+							rows.add(row);
+						} else if (row.hasId() && include.getRoot() != null) {
+							// include ID replaces ID of included root, views are found in the root under the include ID
+							LayoutId root = include.getRoot();
+							String rootID = root.getFullID();
+							boolean rootFound = false;
+							for (int i = includeStart; i < rows.size(); i++) {
+								LayoutId included = rows.get(i);
+								if (rootID != null && included.parent == null && included.getFullID() == rootID) { // interned
+									rows.set(i, included.withIdOf(row));
+									rootFound = true;
+								} else if (included.parent == null || included.parent == rootID) {
+									rows.set(i, included.withParent(row.getFullID()));
+								}
+							}
+							if (!rootFound) {
+								rows.add(root.withIdOf(row));
+							}
+						} else if (row.parent != null) {
+							// top level views of included layout are placed under ancestor of include tag
+							for (int i = includeStart; i < rows.size(); i++) {
+								if (rows.get(i).parent == null) {
+									rows.set(i, rows.get(i).withParent(row.parent));
+								}
+							}
+						}
+
+						continue;
+					}
+				}
+			}
+
+			if (row.hasId()) {
+				rows.add(row);
+			}
+		}
+
+		path.remove(file);
+		stamps.putAll(ownStamps);
+
+		if (complete) { // result doesn't depend on include path, remember it
+			node.composed = new Composed(new ArrayList<LayoutId>(rows.subList(start, rows.size())), ownStamps);
+		}
+
+		return complete;
+	}
+
+	private boolean isValid(Composed composed) {
+		if (composed == null) {
+			return false;
+		}
+
+		for (Map.Entry<VirtualFile, Long> entry : composed.stamps.entrySet()) {
+			Node used = getNode(entry.getKey(), null);
+			if (used == null || used.stamp != entry.getValue()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get scanned layout, rescan it if it was modified
+	 *
+	 * @param file
+	 * @param psiFile PSI of the file if already known
+	 * @return
+	 */
+	private Node getNode(VirtualFile file, PsiFile psiFile) {
+		if (!file.isValid()) {
+			mNodes.remove(file);
+			return null;
+		}
+		if (psiFile == null) {
+			psiFile = PsiManager.getInstance(mProject).findFile(file);
+		}
+		if (psiFile == null) {
+			return null;
+		}
+
+		long stamp = psiFile.getModificationStamp();
+		Node node = mNodes.get(file);
+		if (node == null || node.stamp != stamp) {
+			node = new Node(file, stamp, Utils.getLayoutIds(psiFile));
+			Stats.count("layouts scanned", 1);
+			mNodes.put(file, node);
+		}
+
+		return node;
+	}
+
+	private void addIncluder(VirtualFile include, VirtualFile includer) {
+		Set<VirtualFile> includers = mIncluders.get(include);
+		if (includers == null) {
+			Set<VirtualFile> created = Collections.newSetFromMap(new ConcurrentHashMap<VirtualFile, Boolean>());
+			includers = mIncluders.putIfAbsent(include, created);
+			if (includers == null) {
+				includers = created;
+			}
+		}
+		includers.add(includer);
+	}
+
+	// classes
+
+	/**
+	 * Composed rows together with stamps they were composed from, published at once
+	 */
+	private static class Composed {
+
+		final List<LayoutId> rows;
+		final Map<VirtualFile, Long> stamps;
+		final Set<String> ids;
+
+		Composed(List<LayoutId> rows, Map<VirtualFile, Long> stamps) {
+			this.rows = Collections.unmodifiableList(rows);
+			this.stamps = Collections.unmodifiableMap(stamps);
+			this.ids = collectIds(rows);
+		}
+
+		static Set<String> collectIds(List<LayoutId> rows) {
+			HashSet<String> ids = new HashSet<String>();
+			for (LayoutId row : rows) {
+				ids.add(row.getFullID());
+			}
+
+			return Collections.unmodifiableSet(ids);
+		}
+	}
+
+	private class Node {
+
+		final VirtualFile file;
+		final long stamp;
+		final List<LayoutId> rows;
+		final HashMap<String, VirtualFile> includes = new HashMap<String, VirtualFile>();
+		final HashSet<String> repeated = new HashSet<String>(); // layouts included with ID more than once
+		volatile Composed composed;
+		final LayoutId root; // root tag, its ID is overridden by ID of include tag; null for merge
+
+		Node(VirtualFile file, long stamp, List<LayoutId> rows) {
+			this.file = file;
+			this.stamp = stamp;
+			this.rows = Collections.unmodifiableList(rows); // shared by all threads
+
+			HashSet<String> included = new HashSet<String>();
+			LayoutId root = null;
+			for (LayoutId row : rows) {
+				if (row.isScope() && !included.add(row.include)) {
+					repeated.add(row.include);
+				}
+				if (row.isRoot && !row.name.equals("merge")) {
+					root = row;
+				}
+			}
+			this.root = root;
+		}
+
+		/**
+		 * Root tag of layout, recorded by scanner
+		 *
+		 * @return null for merge root or if layout has no root tag
+		 */
+		LayoutId getRoot() {
+			return root;
+		}
+
+		synchronized VirtualFile resolveInclude(String name) {
+			if (includes.containsKey(name)) {
+				VirtualFile includeFile = includes.get(name);
+				if (includeFile == null || includeFile.isValid()) {
+					return includeFile;
+				}
+			}
+
+			// includes are searched in module of including layout first
+			Module module = ModuleUtilCore.findModuleForFile(file, mProject);
+			PsiFile include = Utils.findLayoutResource(mProject, module, name);
+			VirtualFile includeFile = include == null ? null : include.getVirtualFile();
+			includes.put(name, includeFile);
+
+			return includeFile;
+		}
+
+		/**
+		 * Forget resolution of include, both missing and found layout
+		 *
+		 * @param name
+		 * @return true if layout includes that name
+		 */
+		synchronized boolean forgetInclude(String name) {
+			if (!includes.containsKey(name)) {
+				return false;
+			}
+
+			includes.remove(name);
+			return true;
+		}
+	}
+}
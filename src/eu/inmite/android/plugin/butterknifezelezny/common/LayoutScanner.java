@@ -0,0 +1,280 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.XmlRecursiveElementVisitor;
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlTag;
+import eu.inmite.android.plugin.butterknifezelezny.model.LayoutId;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Scans layout for IDs and includes. There are two engines producing the same rows:
+ * PSI visitor and streaming reader which doesn't build PSI tree at all.
+ * Engine is chosen once per IDE run by -Dbutterknifezelezny.scanner=psi|stream (streaming by default),
+ * -Dbutterknifezelezny.scanner.verify=true compares both engines on every scan and logs differences.
+ */
+public class LayoutScanner {
+
+	private static final Logger sLog = Logger.getInstance(LayoutScanner.class);
+
+	public enum Engine {
+		PSI, STREAM
+	}
+
+	private static final Engine sEngine = "psi".equalsIgnoreCase(System.getProperty("butterknifezelezny.scanner")) ? Engine.PSI : Engine.STREAM;
+	private static final boolean sVerify = Boolean.getBoolean("butterknifezelezny.scanner.verify");
+	private static XMLInputFactory sFactory;
+
+	/**
+	 * Engine used by index and fallback scans, fixed for whole run so index entries are not mixed
+	 *
+	 * @return
+	 */
+	public static Engine getEngine() {
+		return sEngine;
+	}
+
+	/**
+	 * Scan layout with selected engine
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static List<LayoutId> scan(PsiFile file) {
+		if (sVerify) {
+			verify(file);
+		}
+
+		return scan(file, sEngine);
+	}
+
+	/**
+	 * Compare rows produced by both engines and log differences
+	 *
+	 * @param file
+	 * @return true if both engines produced the same rows
+	 */
+	public static boolean verify(PsiFile file) {
+		List<LayoutId> stream;
+		try {
+			stream = scanStream(file.getViewProvider().getContents());
+		} catch (XMLStreamException e) {
+			return true; // malformed XML is always scanned by PSI
+		}
+		List<LayoutId> psi = scanPsi(file);
+
+		String difference = null;
+		if (stream.size() != psi.size()) {
+			difference = stream.size() + " rows by stream, " + psi.size() + " by PSI";
+		} else {
+			for (int i = 0; i < stream.size() && difference == null; i++) {
+				if (!isSame(stream.get(i), psi.get(i))) {
+					difference = "row " + i + " differs: " + describe(stream.get(i)) + " by stream, " + describe(psi.get(i)) + " by PSI";
+				}
+			}
+		}
+
+		if (difference != null) {
+			sLog.warn("Layout engines disagree on " + file.getName() + ": " + difference);
+			return false;
+		}
+
+		return true;
+	}
+
+	// rows are interned, so identity of strings is enough
+	private static boolean isSame(LayoutId a, LayoutId b) {
+		return a.name == b.name && a.id == b.id && a.isAndroidNS == b.isAndroidNS && a.include == b.include && a.parent == b.parent && a.isRoot == b.isRoot;
+	}
+
+	private static String describe(LayoutId row) {
+		return row.name + "(" + row.getFullID() + ", include " + row.include + ", parent " + row.parent + ")";
+	}
+
+	/**
+	 * Scan layout with given engine, streaming engine falls back to PSI for malformed XML
+	 *
+	 * @param file
+	 * @param engine
+	 * @return
+	 */
+	public static List<LayoutId> scan(PsiFile file, Engine engine) {
+		if (engine == Engine.STREAM) {
+			try {
+				return scanStream(file.getViewProvider().getContents());
+			} catch (XMLStreamException e) {
+				sLog.debug("Streaming scan of " + file.getName() + " failed, using PSI", e);
+			}
+		}
+
+		return scanPsi(file);
+	}
+
+	/**
+	 * Read layout text with streaming reader and collect IDs and includes defined directly in it, root tag is the last row
+	 *
+	 * @param text
+	 * @return
+	 * @throws XMLStreamException for malformed XML
+	 */
+	public static List<LayoutId> scanStream(CharSequence text) throws XMLStreamException {
+		final ArrayList<LayoutId> rows = new ArrayList<LayoutId>();
+		// rows are added when tag ends to keep the same order as PSI visitor (children first)
+		final LinkedList<LayoutId> open = new LinkedList<LayoutId>();
+		// full ID of nearest ancestor with ID for every open tag, null if there is none
+		final LinkedList<String> parents = new LinkedList<String>();
+
+		XMLStreamReader reader = getFactory().createXMLStreamReader(new StringReader(text.toString()));
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+					String id = null;
+					String clazz = null;
+					String layout = null;
+
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						String attribute = getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+
+						if ("android:id".equals(attribute)) {
+							id = reader.getAttributeValue(i);
+						} else if ("class".equals(attribute)) {
+							clazz = reader.getAttributeValue(i);
+						} else if ("layout".equals(attribute)) {
+							layout = reader.getAttributeValue(i);
+						}
+					}
+
+					String include = null;
+					if (name.equalsIgnoreCase("include") && layout != null) {
+						include = Utils.getLayoutName(layout);
+					}
+
+					boolean root = parents.isEmpty();
+					String parent = parents.peekFirst();
+					String fullID = LayoutId.getFullID(id);
+					parents.addFirst(fullID != null ? fullID : parent);
+
+					if (root) {
+						open.addFirst(LayoutId.createRoot(clazz != null ? clazz : name, id));
+					} else if (id == null && include == null) {
+						open.addFirst(null); // missing android:id attribute
+					} else {
+						open.addFirst(LayoutId.create(clazz != null ? clazz : name, id, include, parent));
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					parents.removeFirst();
+					LayoutId row = open.removeFirst();
+					if (row != null) {
+						rows.add(row);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Walk layout PSI and collect IDs and includes defined directly in it, root tag is the last row
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static List<LayoutId> scanPsi(final PsiFile file) {
+		final ArrayList<LayoutId> rows = new ArrayList<LayoutId>();
+
+		file.accept(new XmlRecursiveElementVisitor() {
+
+			@Override
+			public void visitElement(final PsiElement element) {
+				super.visitElement(element);
+
+				if (element instanceof XmlTag) {
+					XmlTag tag = (XmlTag) element;
+
+					String include = null;
+					if (tag.getName().equalsIgnoreCase("include")) {
+						XmlAttribute layout = tag.getAttribute("layout", null);
+
+						if (layout != null) {
+							include = Utils.getLayoutName(layout.getValue());
+						}
+					}
+
+					// get element ID
+					String value = null;
+					XmlAttribute id = tag.getAttribute("android:id", null);
+					if (id != null) {
+						value = id.getValue();
+					}
+					boolean root = tag.getParentTag() == null;
+					if (value == null && include == null && !root) {
+						return; // missing android:id attribute
+					}
+
+					// check if there is defined custom class
+					String name = tag.getName();
+					XmlAttribute clazz = tag.getAttribute("class", null);
+					if (clazz != null && clazz.getValue() != null) {
+						name = clazz.getValue();
+					}
+
+					rows.add(root ? LayoutId.createRoot(name, value) : LayoutId.create(name, value, include, getParentID(tag)));
+				}
+			}
+		});
+
+		return rows;
+	}
+
+	/**
+	 * Full ID of nearest ancestor tag with ID
+	 *
+	 * @param tag
+	 * @return null if there is no such ancestor
+	 */
+	private static String getParentID(XmlTag tag) {
+		for (XmlTag parent = tag.getParentTag(); parent != null; parent = parent.getParentTag()) {
+			String fullID = LayoutId.getFullID(parent.getAttributeValue("android:id"));
+			if (fullID != null) {
+				return fullID;
+			}
+		}
+
+		return null;
+	}
+
+	private static String getQualifiedName(String prefix, String localName) {
+		if (prefix == null || prefix.length() == 0) {
+			return localName;
+		}
+
+		return prefix + ":" + localName;
+	}
+
+	private static synchronized XMLInputFactory getFactory() {
+		if (sFactory == null) {
+			sFactory = XMLInputFactory.newInstance();
+			sFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			sFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			sFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		}
+
+		return sFactory;
+	}
+}
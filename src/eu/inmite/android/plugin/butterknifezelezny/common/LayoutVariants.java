@@ -0,0 +1,235 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.*;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.EverythingGlobalScope;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.messages.MessageBusConnection;
+import eu.inmite.android.plugin.butterknifezelezny.index.LayoutIdIndex;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of layout variants (layout, layout-land, layout-sw600dp, ...) by module and layout name.
+ * Layouts are searched in module with its dependencies first, then libraries and then everywhere.
+ * Each folder keeps one file, the one of referencing module or its first dependency defining it.
+ * Dropped whenever layout files are created, deleted, moved or renamed or module roots change.
+ */
+public class LayoutVariants {
+
+	private final Project mProject;
+	private final ConcurrentHashMap<String, List<VirtualFile>> mVariants = new ConcurrentHashMap<String, List<VirtualFile>>();
+	private final ConcurrentHashMap<Module, GlobalSearchScope[]> mScopes = new ConcurrentHashMap<Module, GlobalSearchScope[]>();
+	private final GlobalSearchScope[] mProjectScopes;
+
+	private static final Comparator<VirtualFile> sFolderComparator = new Comparator<VirtualFile>() {
+
+		@Override
+		public int compare(VirtualFile a, VirtualFile b) {
+			// default "layout" folder is the shortest one
+			return getFolder(a).compareTo(getFolder(b));
+		}
+	};
+
+	public LayoutVariants(Project project) {
+		mProject = project;
+		mProjectScopes = new GlobalSearchScope[]{new EverythingGlobalScope(project)};
+
+		MessageBusConnection connection = project.getMessageBus().connect(project);
+		connection.subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
+
+			@Override
+			public void rootsChanged(ModuleRootEvent event) {
+				mScopes.clear();
+				mVariants.clear();
+			}
+		});
+		connection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+
+			@Override
+			public void after(List<? extends VFileEvent> events) {
+				for (VFileEvent event : events) {
+					if (!isStructural(event)) {
+						continue; // content or attributes only, variants are the same
+					}
+					if (event.getPath().endsWith(".xml")) {
+						mVariants.clear();
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	private static boolean isStructural(VFileEvent event) {
+		if (event instanceof VFilePropertyChangeEvent) {
+			return VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName());
+		}
+
+		return event instanceof VFileCreateEvent || event instanceof VFileDeleteEvent || event instanceof VFileMoveEvent || event instanceof VFileCopyEvent;
+	}
+
+	public static LayoutVariants getInstance(Project project) {
+		return ServiceManager.getService(project, LayoutVariants.class);
+	}
+
+	/**
+	 * Get all variants of layout visible from module, default folder first
+	 *
+	 * @param module module of file referencing the layout, null to search whole project
+	 * @param name   layout name without extension
+	 * @return
+	 */
+	public List<PsiFile> getVariants(Module module, String name) {
+		String key = (module == null ? "" : module.getName()) + ":" + name;
+
+		List<VirtualFile> files = mVariants.get(key);
+		if (files == null || !isValid(files)) {
+			files = findVariants(module, getScopes(module), name);
+			mVariants.put(key, files);
+		}
+
+		PsiManager manager = PsiManager.getInstance(mProject);
+		ArrayList<PsiFile> variants = new ArrayList<PsiFile>(files.size());
+		for (VirtualFile file : files) {
+			PsiFile psiFile = manager.findFile(file);
+			if (psiFile != null) {
+				variants.add(psiFile);
+			}
+		}
+
+		return variants;
+	}
+
+	/**
+	 * Name of folder containing layout variant (eg. layout-land)
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static String getFolder(VirtualFile file) {
+		VirtualFile parent = file.getParent();
+		return parent == null ? "" : parent.getName();
+	}
+
+	/**
+	 * Search scopes ordered from the narrowest one
+	 *
+	 * @param module
+	 * @return
+	 */
+	private GlobalSearchScope[] getScopes(Module module) {
+		if (module == null) {
+			return mProjectScopes;
+		}
+
+		GlobalSearchScope[] scopes = mScopes.get(module);
+		if (scopes == null) {
+			scopes = new GlobalSearchScope[]{
+					module.getModuleWithDependenciesScope(),
+					module.getModuleWithDependenciesAndLibrariesScope(false),
+					mProjectScopes[0]
+			};
+			mScopes.put(module, scopes);
+		}
+
+		return scopes;
+	}
+
+	private List<VirtualFile> findVariants(Module module, GlobalSearchScope[] scopes, String name) {
+		String fileName = String.format("%s.xml", name);
+
+		for (GlobalSearchScope scope : scopes) {
+			PsiFile[] files = FilenameIndex.getFilesByName(mProject, fileName, scope);
+
+			ArrayList<VirtualFile> variants = new ArrayList<VirtualFile>(files.length);
+			for (PsiFile file : files) {
+				VirtualFile virtualFile = file.getVirtualFile();
+				if (LayoutIdIndex.isLayoutFile(virtualFile)) {
+					variants.add(virtualFile);
+				}
+			}
+
+			if (!variants.isEmpty()) {
+				return Collections.unmodifiableList(mergeVariants(module, variants));
+			}
+		}
+
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Keep one file per folder like Android resource merging - variant of referencing module replaces
+	 * the same variant of its dependencies, the first declared dependency wins over later ones
+	 *
+	 * @param module   module of file referencing the layout, may be null
+	 * @param variants files of the same name in layout folders of all resource directories
+	 * @return variants ordered by folder, default folder first
+	 */
+	private List<VirtualFile> mergeVariants(Module module, List<VirtualFile> variants) {
+		final HashMap<VirtualFile, Integer> priorities = new HashMap<VirtualFile, Integer>();
+		List<Module> dependencies = module == null ? Collections.<Module>emptyList() : Arrays.asList(ModuleRootManager.getInstance(module).getDependencies());
+		for (VirtualFile file : variants) {
+			Module owner = ModuleUtilCore.findModuleForFile(file, mProject);
+			int priority;
+			if (owner != null && owner == module) {
+				priority = 0;
+			} else if (owner != null && dependencies.contains(owner)) {
+				priority = 1 + dependencies.indexOf(owner);
+			} else {
+				priority = Integer.MAX_VALUE; // libraries and unrelated modules
+			}
+			priorities.put(file, priority);
+		}
+
+		ArrayList<VirtualFile> sorted = new ArrayList<VirtualFile>(variants);
+		Collections.sort(sorted, new Comparator<VirtualFile>() {
+
+			@Override
+			public int compare(VirtualFile a, VirtualFile b) {
+				int result = sFolderComparator.compare(a, b);
+				if (result == 0) {
+					result = priorities.get(a).compareTo(priorities.get(b));
+				}
+				if (result == 0) { // stable choice between resource directories of the same priority
+					result = a.getPath().compareTo(b.getPath());
+				}
+
+				return result;
+			}
+		});
+
+		ArrayList<VirtualFile> merged = new ArrayList<VirtualFile>(sorted.size());
+		for (VirtualFile file : sorted) {
+			if (merged.isEmpty() || !getFolder(merged.get(merged.size() - 1)).equals(getFolder(file))) {
+				merged.add(file);
+			}
+		}
+
+		return merged;
+	}
+
+	private boolean isValid(List<VirtualFile> files) {
+		for (VirtualFile file : files) {
+			if (!file.isValid()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
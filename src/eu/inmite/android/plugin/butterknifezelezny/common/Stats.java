@@ -0,0 +1,259 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Timing and size metrics of generator phases. Finished invocations are logged at debug level
+ * and the recent ones are kept for statistics dialog. Bytes allocated by each phase are measured
+ * too when started with -Dbutterknifezelezny.stats.allocations=true (eg. performance tests).
+ */
+public class Stats {
+
+	private static final Logger sLog = Logger.getInstance(Stats.class);
+	private static final int sHistorySize = 20;
+
+	private static final LinkedList<Invocation> sHistory = new LinkedList<Invocation>();
+	private static final ThreadLocal<Invocation> sCurrent = new ThreadLocal<Invocation>();
+	private static final boolean sAllocations = Boolean.getBoolean("butterknifezelezny.stats.allocations");
+	// bytes allocated by thread when phase began, by begin of phase
+	private static final ThreadLocal<HashMap<Long, Long>> sAllocated = new ThreadLocal<HashMap<Long, Long>>() {
+
+		@Override
+		protected HashMap<Long, Long> initialValue() {
+			return new HashMap<Long, Long>();
+		}
+	};
+
+	/**
+	 * Start measuring new invocation
+	 *
+	 * @param label what is being generated (eg. class and layout name)
+	 * @return
+	 */
+	public static Invocation start(String label) {
+		return new Invocation(label);
+	}
+
+	/**
+	 * Invocation measured on current thread, counters of deeper code are added to it
+	 *
+	 * @return may be null
+	 */
+	public static Invocation current() {
+		return sCurrent.get();
+	}
+
+	/**
+	 * Add to counter of invocation measured on current thread, if any
+	 *
+	 * @param counter
+	 * @param value
+	 */
+	public static void count(String counter, int value) {
+		Invocation invocation = sCurrent.get();
+		if (invocation != null) {
+			invocation.count(counter, value);
+		}
+	}
+
+	/**
+	 * Attach invocation replaced by {@link Invocation#swap()} back
+	 *
+	 * @param previous may be null
+	 */
+	public static void restore(Invocation previous) {
+		if (previous == null) {
+			sCurrent.remove();
+		} else {
+			sCurrent.set(previous);
+		}
+	}
+
+	/**
+	 * Recently finished invocations, the newest first
+	 *
+	 * @return
+	 */
+	public static List<Invocation> getHistory() {
+		synchronized (sHistory) {
+			return new ArrayList<Invocation>(sHistory);
+		}
+	}
+
+	/**
+	 * Bytes allocated by current thread so far
+	 *
+	 * @return -1 if JVM doesn't measure allocations
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void finished(Invocation invocation) {
+		if (sLog.isDebugEnabled()) {
+			sLog.debug(invocation.toString());
+		}
+
+		synchronized (sHistory) {
+			sHistory.addFirst(invocation);
+			while (sHistory.size() > sHistorySize) {
+				sHistory.removeLast();
+			}
+		}
+	}
+
+	// classes
+
+	public static class Invocation {
+
+		private final String mLabel;
+		private final long mStarted = System.currentTimeMillis();
+		private final LinkedHashMap<String, Long> mPhases = new LinkedHashMap<String, Long>(); // nanoseconds
+		private final LinkedHashMap<String, Long> mAllocations = new LinkedHashMap<String, Long>(); // bytes
+		private final LinkedHashMap<String, Integer> mCounters = new LinkedHashMap<String, Integer>();
+		private boolean mFinished = false;
+
+		private Invocation(String label) {
+			mLabel = label;
+		}
+
+		/**
+		 * Start of phase, pass result to {@link #end(String, long)}
+		 *
+		 * @return
+		 */
+		public long begin() {
+			long begin = System.nanoTime();
+			if (sAllocations) {
+				sAllocated.get().put(begin, getAllocatedBytes());
+			}
+
+			return begin;
+		}
+
+		/**
+		 * End of phase, repeated phases are summed
+		 *
+		 * @param phase
+		 * @param begin value returned by {@link #begin()}
+		 */
+		public synchronized void end(String phase, long begin) {
+			long duration = System.nanoTime() - begin;
+			Long previous = mPhases.get(phase);
+			mPhases.put(phase, previous == null ? duration : previous + duration);
+
+			Long allocatedBefore = sAllocations ? sAllocated.get().remove(begin) : null;
+			if (allocatedBefore != null && allocatedBefore >= 0) { // phase began on this thread
+				long allocated = getAllocatedBytes() - allocatedBefore;
+				previous = mAllocations.get(phase);
+				mAllocations.put(phase, previous == null ? allocated : previous + allocated);
+			}
+		}
+
+		public synchronized void count(String counter, int value) {
+			Integer previous = mCounters.get(counter);
+			mCounters.put(counter, previous == null ? value : previous + value);
+		}
+
+		/**
+		 * Counters added by {@link Stats#count(String, int)} on current thread go to this invocation
+		 */
+		public void attach() {
+			sCurrent.set(this);
+		}
+
+		public void detach() {
+			if (sCurrent.get() == this) {
+				sCurrent.remove();
+			}
+		}
+
+		/**
+		 * Attach to worker thread which may already measure something (eg. caller thread running part of jobs)
+		 *
+		 * @return invocation attached before, pass it to {@link Stats#restore(Invocation)}
+		 */
+		public Invocation swap() {
+			Invocation previous = sCurrent.get();
+			sCurrent.set(this);
+
+			return previous;
+		}
+
+		public String getLabel() {
+			return mLabel;
+		}
+
+		/**
+		 * Duration of finished phases
+		 *
+		 * @return nanoseconds by phase
+		 */
+		public synchronized Map<String, Long> getPhases() {
+			return new LinkedHashMap<String, Long>(mPhases);
+		}
+
+		/**
+		 * Allocations of finished phases, empty unless allocations are measured
+		 *
+		 * @return bytes by phase
+		 */
+		public synchronized Map<String, Long> getAllocations() {
+			return new LinkedHashMap<String, Long>(mAllocations);
+		}
+
+		/**
+		 * Log invocation and add it to history, only first call counts
+		 */
+		public void finish() {
+			synchronized (this) {
+				if (mFinished) {
+					return;
+				}
+				mFinished = true;
+			}
+
+			detach();
+			Stats.finished(this);
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(new SimpleDateFormat("HH:mm:ss").format(new Date(mStarted)));
+			s.append(" ");
+			s.append(mLabel);
+
+			for (Map.Entry<String, Long> phase : mPhases.entrySet()) {
+				s.append("\n    ");
+				s.append(phase.getKey());
+				s.append(": ");
+				s.append(phase.getValue() / 1000000);
+				s.append(" ms");
+				if (mAllocations.containsKey(phase.getKey())) {
+					s.append(", ");
+					s.append(mAllocations.get(phase.getKey()) / 1024);
+					s.append(" KB");
+				}
+			}
+			for (Map.Entry<String, Integer> counter : mCounters.entrySet()) {
+				s.append("\n    ");
+				s.append(counter.getKey());
+				s.append(": ");
+				s.append(counter.getValue());
+			}
+
+			return s.toString();
+		}
+	}
+}
@@ -1,35 +1,42 @@
 package eu.inmite.android.plugin.butterknifezelezny.common;
 
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.projectRoots.ProjectJdkTable;
 import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.ui.popup.Balloon;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.StatusBar;
 import com.intellij.openapi.wm.WindowManager;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiIdentifier;
-import com.intellij.psi.XmlRecursiveElementVisitor;
+import com.intellij.psi.*;
 import com.intellij.psi.codeStyle.CodeStyleSettings;
 import com.intellij.psi.codeStyle.CodeStyleSettingsManager;
-import com.intellij.psi.search.EverythingGlobalScope;
-import com.intellij.psi.search.FilenameIndex;
-import com.intellij.psi.xml.XmlAttribute;
-import com.intellij.psi.xml.XmlTag;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.ui.awt.RelativePoint;
+import com.intellij.util.Processor;
+import com.intellij.util.indexing.FileBasedIndex;
+import eu.inmite.android.plugin.butterknifezelezny.index.LayoutIdIndex;
 import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.LayoutId;
 
-import java.util.ArrayList;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Utils {
 
-	private static final Pattern sInjectionIDPattern = Pattern.compile("^@InjectView\\(([^\\)]+)\\)$", Pattern.CASE_INSENSITIVE);
     private static final Pattern sValidityPattern = Pattern.compile("^([a-zA-Z_\\$][\\w\\$]*)$", Pattern.CASE_INSENSITIVE);
+	private static volatile Sdk sAndroidSdk;
+	private static volatile boolean sAndroidSdkResolved = false;
+	private static boolean sJdkListenerRegistered = false;
 
     /**
      * Check validity of field name
@@ -41,9 +48,25 @@ public class Utils {
     }
 
 	/**
-	 * Is using Android SDK?
+	 * Is using Android SDK? Result is cached until JDK table changes
 	 */
 	public static Sdk findAndroidSDK() {
+		if (!sAndroidSdkResolved) {
+			synchronized (Utils.class) {
+				if (!sJdkListenerRegistered) {
+					ApplicationManager.getApplication().getMessageBus().connect().subscribe(ProjectJdkTable.JDK_TABLE_TOPIC, new JdkTableListener());
+					sJdkListenerRegistered = true;
+				}
+			}
+
+			sAndroidSdk = lookupAndroidSDK();
+			sAndroidSdkResolved = true;
+		}
+
+		return sAndroidSdk;
+	}
+
+	private static Sdk lookupAndroidSDK() {
 		Sdk[] allJDKs = ProjectJdkTable.getInstance().getAllJdks();
 		for (Sdk sdk : allJDKs) {
 			if (sdk.getSdkType().getName().toLowerCase().contains("android")) {
@@ -97,14 +120,7 @@ public class Utils {
 			return null; // not layout file
 		}
 
-		Project project = element.getProject();
-		String name = String.format("%s.xml", element.getText());
-		PsiFile[] files = FilenameIndex.getFilesByName(project, name, new EverythingGlobalScope(project));
-		if (files.length <= 0) {
-			return null; //no matching files
-		}
-
-		return files[0];
+		return findLayoutResource(element.getProject(), ModuleUtilCore.findModuleForPsiElement(element), element.getText());
 	}
 
 	/**
@@ -115,13 +131,24 @@ public class Utils {
 	 * @return
 	 */
 	public static PsiFile findLayoutResource(Project project, String fileName) {
-		String name = String.format("%s.xml", fileName);
-		PsiFile[] files = FilenameIndex.getFilesByName(project, name, new EverythingGlobalScope(project));
-		if (files.length <= 0) {
+		return findLayoutResource(project, null, fileName);
+	}
+
+	/**
+	 * Try to find layout XML file by name in module and its dependencies first
+	 *
+	 * @param project
+	 * @param module   module of file referencing the layout, may be null
+	 * @param fileName
+	 * @return
+	 */
+	public static PsiFile findLayoutResource(Project project, Module module, String fileName) {
+		List<PsiFile> files = LayoutVariants.getInstance(project).getVariants(module, fileName);
+		if (files.isEmpty()) {
 			return null; //no matching files
 		}
 
-		return files[0];
+		return files.get(0); // default variant
 	}
 
 	/**
@@ -143,55 +170,188 @@ public class Utils {
 	 * @return
 	 */
 	public static ArrayList<Element> getIDsFromLayout(final PsiFile file, final ArrayList<Element> elements) {
-		file.accept(new XmlRecursiveElementVisitor() {
-
-			@Override
-			public void visitElement(final PsiElement element) {
-				super.visitElement(element);
-
-				if (element instanceof XmlTag) {
-					XmlTag tag = (XmlTag) element;
+		final LayoutCache cache = LayoutCache.getInstance(file.getProject());
+		VirtualFile virtualFile = file.getVirtualFile();
+
+		final List<PsiFile> variants;
+		if (virtualFile != null) {
+			Module module = ModuleUtilCore.findModuleForFile(virtualFile, file.getProject());
+			variants = LayoutVariants.getInstance(file.getProject()).getVariants(module, virtualFile.getNameWithoutExtension());
+		} else {
+			variants = Collections.emptyList();
+		}
 
-					if (tag.getName().equalsIgnoreCase("include")) {
-						XmlAttribute layout = tag.getAttribute("layout", null);
+		if (variants.size() <= 1) {
+			// includes are resolved and composed by cache
+			ArrayList<Element> all = new ArrayList<Element>();
+			for (LayoutId row : cache.getIds(file)) {
+				all.add(row.toElement());
+			}
+			elements.addAll(groupScopes(all));
 
-						if (layout != null) {
-							Project project = file.getProject();
-							PsiFile include = findLayoutResource(project, getLayoutName(layout.getValue()));
+			return elements;
+		}
 
-							if (include != null) {
-								getIDsFromLayout(include, elements);
+		// scan all variants concurrently
+		final ArrayList<List<LayoutId>> results = new ArrayList<List<LayoutId>>(Collections.<List<LayoutId>>nCopies(variants.size(), null));
+		ArrayList<Integer> indexes = new ArrayList<Integer>();
+		for (int i = 0; i < variants.size(); i++) {
+			indexes.add(i);
+		}
 
-								return;
-							}
-						}
-					}
+		final Stats.Invocation stats = Stats.current(); // counters of workers belong to caller
+		JobLauncher.getInstance().invokeConcurrentlyUnderProgress(indexes, ProgressManager.getInstance().getProgressIndicator(), true, new Processor<Integer>() {
 
-					// get element ID
-					XmlAttribute id = tag.getAttribute("android:id", null);
-					if (id == null) {
-						return; // missing android:id attribute
+			@Override
+			public boolean process(Integer index) {
+				Stats.Invocation previous = stats == null ? null : stats.swap();
+				try {
+					List<LayoutId> rows = cache.getIds(variants.get(index));
+					synchronized (results) {
+						results.set(index, rows);
 					}
-					String value = id.getValue();
-					if (value == null) {
-						return; // empty value
+				} finally {
+					if (stats != null) {
+						Stats.restore(previous);
 					}
+				}
+				return true;
+			}
+		});
+
+		// merge IDs of all variants, default variant decides type and order
+		LinkedHashMap<String, Element> merged = new LinkedHashMap<String, Element>();
+		for (int i = 0; i < variants.size(); i++) {
+			List<LayoutId> rows;
+			synchronized (results) {
+				rows = results.get(i);
+			}
+			if (rows == null) { // not finished concurrently (eg. write action was waiting)
+				rows = cache.getIds(variants.get(i));
+			}
 
-					// check if there is defined custom class
-					String name = tag.getName();
-					XmlAttribute clazz = tag.getAttribute("class", null);
-					if (clazz != null) {
-						name = clazz.getValue();
+			String folder = LayoutVariants.getFolder(variants.get(i).getVirtualFile());
+			for (LayoutId row : rows) {
+				String key = row.scope == null ? row.getFullID() : row.scope + "/" + row.getFullID(); // same IDs in more includes
+				Element element = merged.get(key);
+				if (element == null) {
+					element = row.toElement();
+					element.variants = new ArrayList<String>();
+					merged.put(key, element);
+				} else {
+					if (!element.typeMismatch) {
+						element.typeMismatch = element.row.name != row.name; // interned
 					}
+					if (element.container != null && element.container != row.parent) {
+						element.container = null; // hierarchy differs between variants, search from root
+					}
+				}
 
-					elements.add(new Element(name, value));
+				if (!element.variants.contains(folder)) {
+					element.variants.add(folder);
 				}
 			}
-		});
+		}
+		elements.addAll(groupScopes(merged.values()));
 
 		return elements;
 	}
 
+	/**
+	 * Move views of scoped includes into children of their include
+	 *
+	 * @param all elements of composed layout
+	 * @return top level elements
+	 */
+	private static List<Element> groupScopes(Collection<Element> all) {
+		HashMap<String, Element> scopes = new HashMap<String, Element>();
+		for (Element element : all) {
+			if (element.row.isScope()) {
+				element.children = new ArrayList<Element>();
+				scopes.put(element.getFullID(), element);
+			}
+		}
+		if (scopes.isEmpty()) {
+			return new ArrayList<Element>(all);
+		}
+
+		ArrayList<Element> top = new ArrayList<Element>();
+		for (Element element : all) {
+			Element scope = element.row.scope == null ? null : scopes.get(element.row.scope);
+			if (scope != null) {
+				scope.children.add(element);
+			} else {
+				top.add(element);
+			}
+		}
+
+		return top;
+	}
+
+	/**
+	 * Obtain IDs and includes defined directly in layout, read from index if possible
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static List<LayoutId> getLayoutIds(PsiFile file) {
+		Project project = file.getProject();
+		VirtualFile virtualFile = file.getVirtualFile();
+
+		if (virtualFile != null && !DumbService.isDumb(project)) {
+			List<List<LayoutId>> values = FileBasedIndex.getInstance().getValues(LayoutIdIndex.NAME, virtualFile.getNameWithoutExtension(), GlobalSearchScope.fileScope(file));
+			if (!values.isEmpty()) {
+				return values.get(0);
+			}
+		}
+
+		return LayoutScanner.scan(file); // not indexed (yet)
+	}
+
+	/**
+	 * Check if class is adapter (and so ViewHolder should be created)
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	public static boolean isAdapter(PsiClass clazz) {
+		// get parent classes and check if it's an adapter
+		//获取父类class并检测是不是adapter
+		PsiReferenceList list = clazz.getExtendsList();
+		if (list == null) {
+			return false;
+		}
+
+		for (PsiJavaCodeReferenceElement element : list.getReferenceElements()) {
+			if (Defintions.adapters.contains(element.getQualifiedName()) || Defintions.recyclerAdapters.contains(element.getQualifiedName())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get RecyclerView adapter class extended by class
+	 *
+	 * @param clazz
+	 * @return reference to adapter in extends list, null if class is not RecyclerView adapter
+	 */
+	public static PsiJavaCodeReferenceElement getRecyclerAdapter(PsiClass clazz) {
+		PsiReferenceList list = clazz.getExtendsList();
+		if (list == null) {
+			return null;
+		}
+
+		for (PsiJavaCodeReferenceElement element : list.getReferenceElements()) {
+			if (Defintions.recyclerAdapters.contains(element.getQualifiedName())) {
+				return element;
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * Get layout name from XML identifier (@layout/....)
 	 *
@@ -240,6 +400,9 @@ public class Utils {
 	 */
 	public static void showNotification(Project project, MessageType type, String text) {
 		StatusBar statusBar = WindowManager.getInstance().getStatusBar(project);
+		if (statusBar == null) {
+			return; // no frame (eg. headless environment)
+		}
 
 		JBPopupFactory.getInstance()
 				.createHtmlTextBalloonBuilder(text, type, null)
@@ -265,24 +428,49 @@ public class Utils {
 	}
 
 	/**
-	 * Parse ID of injected element (eg. R.id.text)
+	 * Get ID used in findViewById call (eg. R.id.text or android.R.id.text)
 	 *
-	 * @param annotation
+	 * @param call
 	 * @return
 	 */
-	public static String getInjectionID(String annotation) {
-		String id = null;
+	public static String getFindViewID(PsiMethodCallExpression call) {
+		if (call == null || !"findViewById".equals(call.getMethodExpression().getReferenceName())) {
+			return null;
+		}
 
-		if (isEmptyString(annotation)) {
-			return id;
+		PsiExpression[] arguments = call.getArgumentList().getExpressions();
+		if (arguments.length != 1) {
+			return null;
 		}
 
-		Matcher matcher = sInjectionIDPattern.matcher(annotation);
-		if (matcher.find()) {
-			id = matcher.group(1);
+		return getResourceID(arguments[0]);
+	}
+
+	/**
+	 * Get ID from reference to R class (eg. R.id.text or android.R.id.text)
+	 *
+	 * @param expression
+	 * @return
+	 */
+	public static String getResourceID(PsiExpression expression) {
+		if (!(expression instanceof PsiReferenceExpression)) {
+			return null;
 		}
 
-		return id;
+		PsiReferenceExpression reference = (PsiReferenceExpression) expression;
+		PsiExpression qualifier = reference.getQualifierExpression();
+		if (qualifier == null) {
+			return null;
+		}
+
+		String rClass = qualifier.getText();
+		if ("android.R.id".equals(rClass)) {
+			return "android.R.id." + reference.getReferenceName();
+		} else if ("R.id".equals(rClass) || rClass.endsWith(".R.id")) {
+			return "R.id." + reference.getReferenceName();
+		}
+
+		return null;
 	}
 
 	/**
@@ -294,4 +482,24 @@ public class Utils {
 	public static boolean isEmptyString(String text) {
 		return (text == null || text.trim().length() == 0);
 	}
+
+	// classes
+
+	private static class JdkTableListener implements ProjectJdkTable.Listener {
+
+		@Override
+		public void jdkAdded(Sdk jdk) {
+			sAndroidSdkResolved = false;
+		}
+
+		@Override
+		public void jdkRemoved(Sdk jdk) {
+			sAndroidSdkResolved = false;
+		}
+
+		@Override
+		public void jdkNameChanged(Sdk jdk, String previousName) {
+			sAndroidSdkResolved = false;
+		}
+	}
 }
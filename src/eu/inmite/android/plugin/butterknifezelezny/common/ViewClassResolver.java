@@ -0,0 +1,124 @@
+package eu.inmite.android.plugin.butterknifezelezny.common;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves layout tags (eg. SurfaceView) to fully qualified classes. Framework packages are tried first,
+ * then classes of the project. Results are cached until Java structure or project roots change.
+ */
+public class ViewClassResolver {
+
+	private static final String[] sPackages = {"android.widget", "android.view", "android.webkit"};
+	private static final String sUnresolved = ""; // ConcurrentHashMap doesn't allow nulls
+
+	private final Project mProject;
+	private final CachedValue<ConcurrentHashMap<String, String>> mCache;
+
+	public ViewClassResolver(Project project) {
+		mProject = project;
+		mCache = CachedValuesManager.getManager(project).createCachedValue(new CachedValueProvider<ConcurrentHashMap<String, String>>() {
+
+			@Override
+			public Result<ConcurrentHashMap<String, String>> compute() {
+				return Result.create(new ConcurrentHashMap<String, String>(), PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT, ProjectRootManager.getInstance(mProject));
+			}
+		}, false);
+	}
+
+	public static ViewClassResolver getInstance(Project project) {
+		return ServiceManager.getService(project, ViewClassResolver.class);
+	}
+
+	/**
+	 * Resolve classes of all elements without class specified in layout
+	 *
+	 * @param elements
+	 * @return tag name to fully qualified class, unresolved tags are missing
+	 */
+	public Map<String, String> resolve(List<Element> elements) {
+		HashMap<String, String> types = new HashMap<String, String>();
+		resolve(elements, types);
+
+		return types;
+	}
+
+	private void resolve(List<Element> elements, Map<String, String> types) {
+		for (Element element : elements) {
+			if (element.children != null) { // include with its own holder
+				resolve(element.children, types);
+				continue;
+			}
+			if (element.nameFull != null && element.nameFull.length() > 0) {
+				continue; // custom class, already qualified
+			}
+			if (types.containsKey(element.name)) {
+				continue;
+			}
+
+			String type = resolve(element.name);
+			if (type != null) {
+				types.put(element.name, type);
+			}
+		}
+	}
+
+	/**
+	 * Resolve one tag, must be called in read action
+	 *
+	 * @param name tag name without package
+	 * @return fully qualified class or null
+	 */
+	public String resolve(String name) {
+		if (DumbService.isDumb(mProject)) {
+			return null; // indices are not ready, don't cache the miss
+		}
+
+		ConcurrentHashMap<String, String> cache = mCache.getValue();
+		String type = cache.get(name);
+		if (type == null) {
+			type = find(name);
+			cache.put(name, type == null ? sUnresolved : type);
+		}
+
+		return type == null || type.length() == 0 ? null : type;
+	}
+
+	private String find(String name) {
+		GlobalSearchScope scope = GlobalSearchScope.allScope(mProject);
+		JavaPsiFacade facade = JavaPsiFacade.getInstance(mProject);
+
+		for (String pkg : sPackages) {
+			PsiClass clazz = facade.findClass(pkg + "." + name, scope);
+			if (clazz != null) {
+				return clazz.getQualifiedName();
+			}
+		}
+
+		// views of the project used by short name
+		PsiClass[] classes = PsiShortNamesCache.getInstance(mProject).getClassesByName(name, GlobalSearchScope.projectScope(mProject));
+		for (PsiClass clazz : classes) {
+			if (clazz.getQualifiedName() != null) {
+				return clazz.getQualifiedName();
+			}
+		}
+
+		return null;
+	}
+}
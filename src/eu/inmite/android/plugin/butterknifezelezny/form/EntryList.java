@@ -2,28 +2,36 @@ package eu.inmite.android.plugin.butterknifezelezny.form;
 
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SearchTextField;
 import com.intellij.ui.components.JBScrollPane;
 import eu.inmite.android.plugin.butterknifezelezny.common.Utils;
 import eu.inmite.android.plugin.butterknifezelezny.iface.ICancelListener;
 import eu.inmite.android.plugin.butterknifezelezny.iface.IConfirmListener;
 import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.Options;
 
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
 public class EntryList extends JPanel implements FocusListener {
 
     protected Project mProject;
     protected Editor mEditor;
     protected ArrayList<Element> mElements = new ArrayList<Element>();
-    protected ArrayList<String> mGeneratedIDs = new ArrayList<String>();
-    protected ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    protected HashSet<String> mGeneratedIDs = new HashSet<String>();
+    protected EntryTableModel mModel;
+    protected EntryTable mTable;
+    protected SearchTextField mFilter;
     protected boolean mCreateHolder = false;
     protected String mPrefix = null;
     protected IConfirmListener mConfirmListener;
@@ -39,8 +47,16 @@ public class EntryList extends JPanel implements FocusListener {
     protected Color mHolderDefaultColor;
     protected JTextField mMethodNameTextField;
     protected JLabel mMethodNameLabel;
-
-    public EntryList(Project project, Editor editor, ArrayList<Element> elements, ArrayList<String> ids, boolean createHolder, IConfirmListener confirmListener, ICancelListener cancelListener) {
+    protected JCheckBox mReformatCheck;
+    protected JLabel mReformatLabel;
+    protected JCheckBox mSyncCheck;
+    protected JLabel mSyncLabel;
+    protected JCheckBox mStaleCheck;
+    protected JLabel mStaleLabel;
+    protected JCheckBox mBindingCheck;
+    protected JLabel mBindingLabel;
+
+    public EntryList(Project project, Editor editor, ArrayList<Element> elements, Set<String> ids, boolean createHolder, IConfirmListener confirmListener, ICancelListener cancelListener) {
         mProject = project;
         mEditor = editor;
         mCreateHolder = createHolder;
@@ -64,29 +80,26 @@ public class EntryList extends JPanel implements FocusListener {
         JPanel contentPanel = new JPanel();
         contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.PAGE_AXIS));
         contentPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        contentPanel.add(new EntryHeader());
-        contentPanel.add(Box.createRigidArea(new Dimension(0, 5)));
 
-        JPanel injectionsPanel = new JPanel();
-        injectionsPanel.setLayout(new BoxLayout(injectionsPanel, BoxLayout.PAGE_AXIS));
-        injectionsPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        mModel = new EntryTableModel(mElements, mGeneratedIDs);
+        mTable = new EntryTable(mModel);
 
-        int cnt = 0;
-        for (Element element : mElements) {
-            Entry entry = new Entry(this, element, mGeneratedIDs);
+        mFilter = new SearchTextField();
+        mFilter.setMaximumSize(new Dimension(Short.MAX_VALUE, 26));
+        mFilter.addDocumentListener(new DocumentAdapter() {
 
-            if (cnt > 0) {
-                injectionsPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+            @Override
+            protected void textChanged(DocumentEvent event) {
+                if (mTable.isEditing()) {
+                    mTable.getCellEditor().stopCellEditing();
+                }
+                mModel.setFilter(mFilter.getText());
             }
-            injectionsPanel.add(entry);
-            cnt++;
-
-            mEntries.add(entry);
-        }
-        injectionsPanel.add(Box.createVerticalGlue());
-        injectionsPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        });
+        contentPanel.add(mFilter);
+        contentPanel.add(Box.createRigidArea(new Dimension(0, 5)));
 
-        JBScrollPane scrollPane = new JBScrollPane(injectionsPanel);
+        JBScrollPane scrollPane = new JBScrollPane(mTable);
         contentPanel.add(scrollPane);
 
         add(contentPanel, BorderLayout.CENTER);
@@ -151,6 +164,50 @@ public class EntryList extends JPanel implements FocusListener {
         holderPanel.add(Box.createHorizontalGlue());
         add(holderPanel, BorderLayout.PAGE_END);
 
+        mReformatCheck = new JCheckBox();
+        mReformatCheck.setPreferredSize(new Dimension(32, 26));
+        mReformatCheck.setSelected(false);
+
+        mReformatLabel = new JLabel();
+        mReformatLabel.setText("Reformat whole file");
+
+        mSyncCheck = new JCheckBox();
+        mSyncCheck.setPreferredSize(new Dimension(32, 26));
+        mSyncCheck.setSelected(true);
+        mSyncCheck.addChangeListener(new CheckSyncListener());
+
+        mSyncLabel = new JLabel();
+        mSyncLabel.setText("Update existing method");
+
+        mStaleCheck = new JCheckBox();
+        mStaleCheck.setPreferredSize(new Dimension(32, 26));
+        mStaleCheck.setSelected(false);
+
+        mStaleLabel = new JLabel();
+        mStaleLabel.setText("Remove stale");
+
+        mBindingCheck = new JCheckBox();
+        mBindingCheck.setPreferredSize(new Dimension(32, 26));
+        mBindingCheck.setSelected(false);
+        mBindingCheck.addChangeListener(new CheckBindingListener());
+
+        mBindingLabel = new JLabel();
+        mBindingLabel.setText("Binding class");
+
+        JPanel reformatPanel = new JPanel();
+        reformatPanel.setLayout(new BoxLayout(reformatPanel, BoxLayout.LINE_AXIS));
+        reformatPanel.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
+        reformatPanel.add(mReformatCheck);
+        reformatPanel.add(mReformatLabel);
+        reformatPanel.add(mSyncCheck);
+        reformatPanel.add(mSyncLabel);
+        reformatPanel.add(mStaleCheck);
+        reformatPanel.add(mStaleLabel);
+        reformatPanel.add(mBindingCheck);
+        reformatPanel.add(mBindingLabel);
+        reformatPanel.add(Box.createHorizontalGlue());
+        add(reformatPanel, BorderLayout.PAGE_END);
+
         mCancel = new JButton();
         mCancel.setAction(new CancelAction());
         mCancel.setPreferredSize(new Dimension(120, 26));
@@ -175,6 +232,23 @@ public class EntryList extends JPanel implements FocusListener {
         refresh();
     }
 
+    /**
+     * Collect generator settings from dialog
+     *
+     * @return
+     */
+    protected Options getOptions() {
+        Options options = new Options(mCreateHolder);
+        options.holderClassName = mHolderNameTextField.getText();
+        options.methodName = mMethodNameTextField.getText();
+        options.reformatWholeFile = mReformatCheck.isSelected();
+        options.sync = mSyncCheck.isSelected();
+        options.removeStale = mSyncCheck.isSelected() && mStaleCheck.isSelected();
+        options.bindingClass = mBindingCheck.isSelected();
+
+        return options;
+    }
+
     protected void refresh() {
         revalidate();
 
@@ -184,13 +258,9 @@ public class EntryList extends JPanel implements FocusListener {
     }
 
     protected boolean checkValidity() {
-        boolean valid = true;
+        // element names are validated by model when changed
+        boolean valid = mModel.isValid();
 
-        for (Element element : mElements) {
-            if (!element.checkValidity()) {
-                valid = false;
-            }
-        }
         boolean holderName = Utils.checkValidity(mHolderNameTextField.getText());
         if (holderName) {
             mHolderNameTextField.setBackground(mHolderDefaultColor);
@@ -204,7 +274,7 @@ public class EntryList extends JPanel implements FocusListener {
         } else {
             mMethodNameTextField.setBackground(new Color(0x880000));
         }
-        return valid && holderName && holderName;
+        return valid && holderName && methodName;
     }
 
     @Override
@@ -228,6 +298,27 @@ public class EntryList extends JPanel implements FocusListener {
         }
     }
 
+    public class CheckSyncListener implements ChangeListener {
+
+        @Override
+        public void stateChanged(ChangeEvent event) {
+            mStaleCheck.setEnabled(mSyncCheck.isSelected());
+        }
+    }
+
+    public class CheckBindingListener implements ChangeListener {
+
+        @Override
+        public void stateChanged(ChangeEvent event) {
+            // binding class replaces holder and init method
+            boolean binding = mBindingCheck.isSelected();
+            mHolderCheck.setEnabled(!binding);
+            mHolderNameTextField.setEnabled(!binding && mCreateHolder);
+            mSyncCheck.setEnabled(!binding);
+            mStaleCheck.setEnabled(!binding && mSyncCheck.isSelected());
+        }
+    }
+
     public class CheckPrefixListener implements ChangeListener {
 
         @Override
@@ -245,15 +336,14 @@ public class EntryList extends JPanel implements FocusListener {
     protected class ConfirmAction extends AbstractAction {
 
         public void actionPerformed(ActionEvent event) {
-            boolean valid = checkValidity();
-
-            for (Entry entry : mEntries) {
-                entry.syncElement();
+            if (mTable.isEditing()) {
+                mTable.getCellEditor().stopCellEditing();
             }
 
+            boolean valid = checkValidity();
             if (valid) {
                 if (mConfirmListener != null) {
-                    mConfirmListener.onConfirm(mProject, mEditor, mElements, mPrefix, mCreateHolder, mHolderNameTextField.getText(),mMethodNameTextField.getText());
+                    mConfirmListener.onConfirm(mProject, mEditor, mElements, mPrefix, getOptions());
                 }
             }
         }
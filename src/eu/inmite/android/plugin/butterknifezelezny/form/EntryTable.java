@@ -0,0 +1,84 @@
+package eu.inmite.android.plugin.butterknifezelezny.form;
+
+import com.intellij.ui.table.JBTable;
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableColumn;
+import java.awt.*;
+
+/**
+ * Table of layout elements, only visible rows are rendered
+ */
+public class EntryTable extends JBTable {
+
+    protected EntryTableModel mModel;
+    protected Color mNameErrorColor = new Color(0x880000);
+    protected Color mTypeMismatchColor = new Color(0xCC6600);
+
+    public EntryTable(EntryTableModel model) {
+        super(model);
+        mModel = model;
+
+        setRowHeight(26);
+        setSurrendersFocusOnKeystroke(true);
+        putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+
+        setColumnWidth(EntryTableModel.COLUMN_USED, 40, true);
+        setColumnWidth(EntryTableModel.COLUMN_TYPE, 100, false);
+        setColumnWidth(EntryTableModel.COLUMN_ID, 160, false);
+        setColumnWidth(EntryTableModel.COLUMN_NAME, 260, false);
+        setColumnWidth(EntryTableModel.COLUMN_LAZY, 50, true);
+
+        EntryRenderer renderer = new EntryRenderer();
+        getColumnModel().getColumn(EntryTableModel.COLUMN_TYPE).setCellRenderer(renderer);
+        getColumnModel().getColumn(EntryTableModel.COLUMN_ID).setCellRenderer(renderer);
+        getColumnModel().getColumn(EntryTableModel.COLUMN_NAME).setCellRenderer(renderer);
+    }
+
+    private void setColumnWidth(int index, int width, boolean fixed) {
+        TableColumn column = getColumnModel().getColumn(index);
+        column.setPreferredWidth(width);
+        if (fixed) {
+            column.setMinWidth(width);
+            column.setMaxWidth(width);
+        }
+    }
+
+    // classes
+
+    protected class EntryRenderer extends DefaultTableCellRenderer {
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+
+            Element element = mModel.getElement(row);
+            setEnabled(element.used);
+            if (column == EntryTableModel.COLUMN_NAME && element.used && !element.isValid) {
+                setBackground(mNameErrorColor);
+            } else if (!isSelected) {
+                setBackground(table.getBackground());
+            }
+
+            // layout variants
+            if (column == EntryTableModel.COLUMN_TYPE && element.typeMismatch) {
+                setForeground(mTypeMismatchColor);
+                setToolTipText("Type differs between variants: " + element.variants);
+            } else if (element.variants != null) {
+                if (!isSelected) {
+                    setForeground(table.getForeground());
+                }
+                setToolTipText("Defined in " + element.variants);
+            } else {
+                if (!isSelected) {
+                    setForeground(table.getForeground());
+                }
+                setToolTipText(null);
+            }
+
+            return this;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package eu.inmite.android.plugin.butterknifezelezny.form;
+
+import eu.inmite.android.plugin.butterknifezelezny.common.CodeGenerator;
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Table model over layout elements, supports filtering of visible rows
+ */
+public class EntryTableModel extends AbstractTableModel {
+
+    public static final int COLUMN_USED = 0;
+    public static final int COLUMN_TYPE = 1;
+    public static final int COLUMN_ID = 2;
+    public static final int COLUMN_NAME = 3;
+    public static final int COLUMN_LAZY = 4;
+
+    private static final String[] sColumns = {"", "Element", "ID", "Variable Name", "Lazy"};
+
+    protected List<Element> mElements;
+    protected int[] mVisible; // indexes of elements matching filter
+    protected int mVisibleCount;
+    protected int mInvalidCount = 0;
+    protected String mFilter = null;
+
+    public EntryTableModel(List<Element> elements, Collection<String> generatedIDs) {
+        mElements = elements;
+        mVisible = new int[elements.size()];
+
+        for (Element element : mElements) {
+            if (generatedIDs != null && generatedIDs.contains(element.getFullID())) {
+                element.used = false; // already injected
+            }
+            if (!element.checkValidity()) {
+                mInvalidCount++;
+            }
+        }
+
+        applyFilter();
+    }
+
+    /**
+     * Show only elements containing given text in type, ID or variable name
+     *
+     * @param filter
+     */
+    public void setFilter(String filter) {
+        if (filter != null) {
+            filter = filter.trim().toLowerCase();
+            if (filter.length() == 0) {
+                filter = null;
+            }
+        }
+
+        mFilter = filter;
+        applyFilter();
+        fireTableDataChanged();
+    }
+
+    /**
+     * All variable names are valid Java identifiers
+     *
+     * @return
+     */
+    public boolean isValid() {
+        return mInvalidCount == 0;
+    }
+
+    public Element getElement(int row) {
+        return mElements.get(mVisible[row]);
+    }
+
+    @Override
+    public int getRowCount() {
+        return mVisibleCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return sColumns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return sColumns[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        if (column == COLUMN_USED || column == COLUMN_LAZY) {
+            return Boolean.class;
+        }
+
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        if (column == COLUMN_USED) {
+            return true;
+        }
+        if (column == COLUMN_NAME || column == COLUMN_LAZY) {
+            return getElement(row).used;
+        }
+
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Element element = getElement(row);
+
+        switch (column) {
+            case COLUMN_USED:
+                return element.used;
+            case COLUMN_TYPE:
+                return element.children != null ? CodeGenerator.getScopeHolderName(element) : element.name;
+            case COLUMN_ID:
+                return element.id;
+            case COLUMN_NAME:
+                return element.fieldName;
+            case COLUMN_LAZY:
+                return element.lazy;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        Element element = getElement(row);
+
+        if (column == COLUMN_USED) {
+            element.used = Boolean.TRUE.equals(value);
+            fireTableRowsUpdated(row, row);
+        } else if (column == COLUMN_LAZY) {
+            element.lazy = Boolean.TRUE.equals(value);
+            fireTableCellUpdated(row, column);
+        } else if (column == COLUMN_NAME) {
+            String name = value == null ? "" : value.toString();
+            if (name.equals(element.fieldName)) {
+                return; // nothing changed, no need to validate
+            }
+
+            boolean wasValid = element.isValid;
+            element.fieldName = name;
+            if (element.checkValidity() != wasValid) {
+                mInvalidCount += wasValid ? 1 : -1;
+            }
+            fireTableCellUpdated(row, column);
+        }
+    }
+
+    private void applyFilter() {
+        mVisibleCount = 0;
+
+        for (int i = 0; i < mElements.size(); i++) {
+            if (matches(mElements.get(i))) {
+                mVisible[mVisibleCount++] = i;
+            }
+        }
+    }
+
+    private boolean matches(Element element) {
+        if (mFilter == null) {
+            return true;
+        }
+
+        return contains(element.id) || contains(element.name) || contains(element.fieldName);
+    }
+
+    private boolean contains(String value) {
+        return value != null && value.toLowerCase().contains(mFilter);
+    }
+}
@@ -0,0 +1,175 @@
+package eu.inmite.android.plugin.butterknifezelezny.index;
+
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import eu.inmite.android.plugin.butterknifezelezny.common.LayoutScanner;
+import eu.inmite.android.plugin.butterknifezelezny.model.LayoutId;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Maps layout name (file name without extension) to IDs and includes defined directly in that layout and its root tag
+ */
+public class LayoutIdIndex extends FileBasedIndexExtension<String, List<LayoutId>> {
+
+	public static final ID<String, List<LayoutId>> NAME = ID.create("eu.inmite.android.plugin.butterknifezelezny.LayoutIdIndex");
+
+	private static final int VERSION = 6;
+
+	private final DataIndexer<String, List<LayoutId>, FileContent> mIndexer = new DataIndexer<String, List<LayoutId>, FileContent>() {
+
+		@NotNull
+		@Override
+		public Map<String, List<LayoutId>> map(FileContent inputData) {
+			String key = inputData.getFile().getNameWithoutExtension();
+
+			PsiFile file = inputData.getPsiFile();
+			if (file == null) {
+				return Collections.emptyMap();
+			}
+
+			return Collections.singletonMap(key, LayoutScanner.scan(file));
+		}
+	};
+
+	private final DataExternalizer<List<LayoutId>> mExternalizer = new DataExternalizer<List<LayoutId>>() {
+
+		@Override
+		public void save(DataOutput out, List<LayoutId> value) throws IOException {
+			out.writeInt(value.size());
+			for (LayoutId row : value) {
+				out.writeUTF(row.name);
+				writeNullable(out, row.id);
+				out.writeBoolean(row.isAndroidNS);
+				writeNullable(out, row.include);
+				writeNullable(out, row.parent);
+				out.writeBoolean(row.isRoot);
+			}
+		}
+
+		@Override
+		public List<LayoutId> read(DataInput in) throws IOException {
+			int size = in.readInt();
+			ArrayList<LayoutId> rows = new ArrayList<LayoutId>(size);
+			for (int i = 0; i < size; i++) {
+				String name = in.readUTF();
+				String id = readNullable(in);
+				boolean androidNS = in.readBoolean();
+				String include = readNullable(in);
+				String parent = readNullable(in);
+				boolean root = in.readBoolean();
+
+				rows.add(new LayoutId(name, id, androidNS, include, parent, root));
+			}
+
+			return rows;
+		}
+	};
+
+	private final FileBasedIndex.InputFilter mInputFilter = new FileBasedIndex.InputFilter() {
+
+		@Override
+		public boolean acceptInput(VirtualFile file) {
+			return isLayoutFile(file);
+		}
+	};
+
+	@NotNull
+	@Override
+	public ID<String, List<LayoutId>> getName() {
+		return NAME;
+	}
+
+	@NotNull
+	@Override
+	public DataIndexer<String, List<LayoutId>, FileContent> getIndexer() {
+		return mIndexer;
+	}
+
+	@Override
+	public KeyDescriptor<String> getKeyDescriptor() {
+		return new EnumeratorStringDescriptor();
+	}
+
+	@Override
+	public DataExternalizer<List<LayoutId>> getValueExternalizer() {
+		return mExternalizer;
+	}
+
+	@Override
+	public FileBasedIndex.InputFilter getInputFilter() {
+		return mInputFilter;
+	}
+
+	@Override
+	public boolean dependsOnFileContent() {
+		return true;
+	}
+
+	@Override
+	public int getVersion() {
+		// engines may differ in edge cases, switching engine rebuilds the index
+		return VERSION * 2 + LayoutScanner.getEngine().ordinal();
+	}
+
+	/**
+	 * Is file XML placed in layout folder (layout, layout-land, ...) of resource directory?
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static boolean isLayoutFile(VirtualFile file) {
+		if (file == null || file.getFileType() != StdFileTypes.XML) {
+			return false;
+		}
+
+		VirtualFile parent = file.getParent();
+		if (parent == null || !(parent.getName().equals("layout") || parent.getName().startsWith("layout-"))) {
+			return false;
+		}
+
+		return isResourceDir(parent.getParent());
+	}
+
+	/**
+	 * Is directory res folder or custom resource root (eg. res-screen declared in build script) containing values?
+	 *
+	 * @param dir
+	 * @return
+	 */
+	private static boolean isResourceDir(VirtualFile dir) {
+		if (dir == null || !dir.isDirectory()) {
+			return false;
+		}
+		if (dir.getName().equals("res")) {
+			return true;
+		}
+
+		VirtualFile values = dir.findChild("values");
+		return values != null && values.isDirectory();
+	}
+
+	private static void writeNullable(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInput in) throws IOException {
+		if (in.readBoolean()) {
+			return in.readUTF();
+		}
+
+		return null;
+	}
+}
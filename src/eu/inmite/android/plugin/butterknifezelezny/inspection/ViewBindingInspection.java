@@ -0,0 +1,418 @@
+package eu.inmite.android.plugin.butterknifezelezny.inspection;
+
+import com.intellij.codeInspection.BaseJavaLocalInspectionTool;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemHighlightType;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import eu.inmite.android.plugin.butterknifezelezny.InjectWriter;
+import eu.inmite.android.plugin.butterknifezelezny.common.BoundIds;
+import eu.inmite.android.plugin.butterknifezelezny.common.LayoutCache;
+import eu.inmite.android.plugin.butterknifezelezny.common.LayoutVariants;
+import eu.inmite.android.plugin.butterknifezelezny.common.Utils;
+import eu.inmite.android.plugin.butterknifezelezny.model.Element;
+import eu.inmite.android.plugin.butterknifezelezny.model.Options;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nls;
+
+import java.util.*;
+
+/**
+ * Highlights views of layout not initialized in class bound to it and findViewById calls of IDs
+ * which are no longer in the layout. Answers only from cached ID sets, layout PSI is walked by quick fixes only.
+ */
+public class ViewBindingInspection extends BaseJavaLocalInspectionTool {
+
+	private static final Key<CachedValue<Set<String>>> sKey = Key.create("eu.inmite.android.plugin.butterknifezelezny.LayoutNames");
+	private static final int sListedIds = 3; // IDs named in problem description
+
+	@Nls
+	@NotNull
+	@Override
+	public String getGroupDisplayName() {
+		return "Android";
+	}
+
+	@Nls
+	@NotNull
+	@Override
+	public String getDisplayName() {
+		return "Views missing in initialization or not in layout";
+	}
+
+	@NotNull
+	@Override
+	public String getShortName() {
+		return "InitViewsBinding";
+	}
+
+	@Override
+	public boolean isEnabledByDefault() {
+		return true;
+	}
+
+	@NotNull
+	@Override
+	public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+		return new JavaElementVisitor() {
+
+			// layout of each class is resolved once per pass
+			private final HashMap<PsiClass, PsiFile> mLayouts = new HashMap<PsiClass, PsiFile>();
+			private final HashSet<PsiClass> mReported = new HashSet<PsiClass>();
+			private final HashMap<PsiFile, Set<String>> mIds = new HashMap<PsiFile, Set<String>>();
+			private final HashMap<PsiClass, PsiMethod> mInitMethods = new HashMap<PsiClass, PsiMethod>();
+
+			@Override
+			public void visitReferenceExpression(PsiReferenceExpression expression) {
+				if (!isLayoutReference(expression)) {
+					return;
+				}
+
+				PsiClass clazz = getOwner(expression);
+				PsiFile layout = getLayout(clazz);
+				if (layout == null || !mReported.add(clazz)) {
+					return;
+				}
+
+				Set<String> layoutIds = getIds(layout);
+				Set<String> bound = BoundIds.get(clazz);
+
+				ArrayList<String> missing = new ArrayList<String>();
+				boolean used = false;
+				for (String id : layoutIds) {
+					if (bound.contains(id)) {
+						used = true;
+					} else {
+						missing.add(id);
+					}
+				}
+				if (!used || missing.isEmpty()) {
+					return; // class doesn't initialize views of this layout at all or nothing drifted
+				}
+
+				Collections.sort(missing);
+				StringBuilder description = new StringBuilder();
+				description.append(missing.size() == 1 ? "View " : "Views ");
+				for (int i = 0; i < missing.size() && i < sListedIds; i++) {
+					if (i > 0) {
+						description.append(", ");
+					}
+					description.append(missing.get(i));
+				}
+				if (missing.size() > sListedIds) {
+					description.append(" and ").append(missing.size() - sListedIds).append(" more");
+				}
+				description.append(" of ").append(layout.getName()).append(" not initialized");
+
+				holder.registerProblem(expression, description.toString(), ProblemHighlightType.GENERIC_ERROR_OR_WARNING, new SyncFix(false));
+			}
+
+			@Override
+			public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+				super.visitMethodCallExpression(expression);
+
+				String id = Utils.getFindViewID(expression);
+				if (id == null || !id.startsWith("R.id.")) {
+					return; // framework IDs aren't in layouts of project
+				}
+
+				// nearest enclosing class bound to layout, eg. adapter of view holder
+				PsiClass clazz = getOwner(expression);
+				PsiFile layout = null;
+				for (; clazz != null; clazz = getOwner(clazz)) {
+					layout = getLayout(clazz);
+					if (layout != null) {
+						break;
+					}
+				}
+				if (layout == null || getIds(layout).contains(id)) {
+					return;
+				}
+
+				// the same method as generator patches, names may be changed in dialog
+				PsiMethod method = PsiTreeUtil.getParentOfType(expression, PsiMethod.class);
+				boolean inInit = method != null && method == getInitMethod(clazz);
+
+				String description = id + " is not in " + layout.getName();
+				PsiElement argument = expression.getArgumentList().getExpressions()[0];
+				if (inInit) { // generator removes stale bindings only from init method
+					holder.registerProblem(argument, description, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, new SyncFix(true));
+				} else {
+					holder.registerProblem(argument, description, ProblemHighlightType.GENERIC_ERROR_OR_WARNING);
+				}
+			}
+
+			private PsiFile getLayout(PsiClass clazz) {
+				if (clazz == null) {
+					return null;
+				}
+				if (mLayouts.containsKey(clazz)) {
+					return mLayouts.get(clazz);
+				}
+
+				PsiFile layout = findLayout(clazz);
+				mLayouts.put(clazz, layout);
+
+				return layout;
+			}
+
+			private PsiMethod getInitMethod(PsiClass clazz) {
+				if (!mInitMethods.containsKey(clazz)) {
+					mInitMethods.put(clazz, findInitMethod(clazz));
+				}
+
+				return mInitMethods.get(clazz);
+			}
+
+			private Set<String> getIds(PsiFile layout) {
+				Set<String> ids = mIds.get(layout);
+				if (ids == null) {
+					ids = getVariantIds(layout);
+					mIds.put(layout, ids);
+				}
+
+				return ids;
+			}
+		};
+	}
+
+	/**
+	 * Layout the class is bound to, classes referencing more layouts are ambiguous and skipped
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	private static PsiFile findLayout(PsiClass clazz) {
+		Set<String> names = getLayoutNames(clazz);
+		if (names.size() != 1) {
+			return null;
+		}
+
+		return Utils.findLayoutResource(clazz.getProject(), ModuleUtilCore.findModuleForPsiElement(clazz), names.iterator().next());
+	}
+
+	/**
+	 * Method initializing views - the one assigning most findViewById results to fields of its class,
+	 * for adapters it's usually in holder class. Its name and the holder name may differ from defaults.
+	 *
+	 * @param clazz class bound to layout
+	 * @return null if class doesn't initialize views by findViewById
+	 */
+	private static PsiMethod findInitMethod(PsiClass clazz) {
+		ArrayList<PsiClass> classes = new ArrayList<PsiClass>();
+		classes.add(clazz);
+		if (Utils.isAdapter(clazz)) {
+			classes.addAll(Arrays.asList(clazz.getInnerClasses()));
+		}
+
+		PsiMethod init = null;
+		int initCount = 0;
+		for (PsiClass candidate : classes) {
+			for (PsiMethod method : candidate.getMethods()) {
+				int count = countFindViewAssignments(method);
+				if (count > initCount) {
+					init = method;
+					initCount = count;
+				}
+			}
+		}
+
+		return init;
+	}
+
+	/**
+	 * Count statements of method assigning findViewById result to field of its class, the same statements generator patches
+	 *
+	 * @param method
+	 * @return
+	 */
+	private static int countFindViewAssignments(PsiMethod method) {
+		PsiCodeBlock body = method.getBody();
+		if (body == null) {
+			return 0;
+		}
+
+		int count = 0;
+		for (PsiStatement statement : body.getStatements()) {
+			if (!(statement instanceof PsiExpressionStatement) || !(((PsiExpressionStatement) statement).getExpression() instanceof PsiAssignmentExpression)) {
+				continue;
+			}
+
+			PsiAssignmentExpression assignment = (PsiAssignmentExpression) ((PsiExpressionStatement) statement).getExpression();
+			PsiMethodCallExpression call = PsiTreeUtil.findChildOfType(assignment.getRExpression(), PsiMethodCallExpression.class, false);
+			if (call == null || Utils.getFindViewID(call) == null || !(assignment.getLExpression() instanceof PsiReferenceExpression)) {
+				continue;
+			}
+
+			PsiElement field = ((PsiReferenceExpression) assignment.getLExpression()).resolve();
+			if (field instanceof PsiField && ((PsiField) field).getContainingClass() == method.getContainingClass()) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Full IDs of all variants of layout (layout-land, ...), the same views the generator merges
+	 *
+	 * @param layout
+	 * @return
+	 */
+	private static Set<String> getVariantIds(PsiFile layout) {
+		LayoutCache cache = LayoutCache.getInstance(layout.getProject());
+		VirtualFile file = layout.getVirtualFile();
+		if (file == null) {
+			return cache.getFullIds(layout);
+		}
+
+		Module module = ModuleUtilCore.findModuleForFile(file, layout.getProject());
+		List<PsiFile> variants = LayoutVariants.getInstance(layout.getProject()).getVariants(module, file.getNameWithoutExtension());
+		if (variants.size() <= 1) {
+			return cache.getFullIds(layout);
+		}
+
+		HashSet<String> ids = new HashSet<String>();
+		for (PsiFile variant : variants) {
+			ids.addAll(cache.getFullIds(variant));
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Names of layouts referenced by R.layout.* in class, references in nested classes belong to them
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	private static Set<String> getLayoutNames(final PsiClass clazz) {
+		CachedValue<Set<String>> cached = clazz.getUserData(sKey);
+		if (cached == null) {
+			cached = CachedValuesManager.getManager(clazz.getProject()).createCachedValue(new CachedValueProvider<Set<String>>() {
+
+				@Override
+				public Result<Set<String>> compute() {
+					return Result.create(collectLayoutNames(clazz), clazz.getContainingFile());
+				}
+			}, false);
+			clazz.putUserData(sKey, cached);
+		}
+
+		return cached.getValue();
+	}
+
+	private static Set<String> collectLayoutNames(final PsiClass clazz) {
+		final HashSet<String> names = new HashSet<String>();
+
+		clazz.accept(new JavaRecursiveElementWalkingVisitor() {
+
+			@Override
+			public void visitReferenceExpression(PsiReferenceExpression expression) {
+				super.visitReferenceExpression(expression);
+
+				if (isLayoutReference(expression) && getOwner(expression) == clazz) {
+					names.add(expression.getReferenceName());
+				}
+			}
+		});
+
+		return Collections.unmodifiableSet(names);
+	}
+
+	private static boolean isLayoutReference(PsiReferenceExpression expression) {
+		PsiExpression qualifier = expression.getQualifierExpression();
+		return qualifier != null && "R.layout".equals(qualifier.getText());
+	}
+
+	/**
+	 * Nearest enclosing class which is not anonymous
+	 *
+	 * @param element
+	 * @return
+	 */
+	private static PsiClass getOwner(PsiElement element) {
+		PsiClass clazz = PsiTreeUtil.getParentOfType(element, PsiClass.class);
+		while (clazz instanceof PsiAnonymousClass) {
+			clazz = PsiTreeUtil.getParentOfType(clazz, PsiClass.class);
+		}
+
+		return clazz;
+	}
+
+	// classes
+
+	/**
+	 * Patch init method of the class bound to layout - add missing views or remove stale ones
+	 */
+	private static class SyncFix implements LocalQuickFix {
+
+		private final boolean mRemoveStale;
+
+		SyncFix(boolean removeStale) {
+			mRemoveStale = removeStale;
+		}
+
+		@NotNull
+		@Override
+		public String getName() {
+			return mRemoveStale ? "Remove views which are not in layout" : "Initialize missing views";
+		}
+
+		@NotNull
+		@Override
+		public String getFamilyName() {
+			return "Initialize views";
+		}
+
+		@Override
+		public void applyFix(@NotNull Project project, @NotNull ProblemDescriptor descriptor) {
+			PsiElement element = descriptor.getPsiElement();
+			if (element == null || !element.isValid()) {
+				return;
+			}
+
+			PsiClass clazz = getOwner(element);
+			PsiFile layout = null;
+			for (; clazz != null; clazz = getOwner(clazz)) {
+				layout = findLayout(clazz);
+				if (layout != null) {
+					break;
+				}
+			}
+			if (layout == null) {
+				return;
+			}
+
+			ArrayList<Element> elements = Utils.getIDsFromLayout(layout);
+			Set<String> bound = BoundIds.get(clazz);
+			for (Element view : elements) {
+				view.used = !mRemoveStale && !bound.contains(view.getFullID());
+			}
+
+			// patch the method initializing views now, with names chosen when it was generated
+			PsiMethod init = findInitMethod(clazz);
+			Options options = new Options(init != null ? init.getContainingClass() != clazz : Utils.isAdapter(clazz));
+			if (init != null) {
+				options.methodName = init.getName();
+				if (init.getContainingClass() != clazz) {
+					options.holderClassName = init.getContainingClass().getName();
+				}
+			}
+			options.removeStale = mRemoveStale;
+			options.wireAdapter = false; // fix only initializes views, adapter methods are left as they are
+
+			new InjectWriter(clazz.getContainingFile(), clazz, "Generate Injections", elements, layout.getName(), null, options).execute();
+		}
+	}
+}
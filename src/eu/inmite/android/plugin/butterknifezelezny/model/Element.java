@@ -1,41 +1,37 @@
 package eu.inmite.android.plugin.butterknifezelezny.model;
 
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Selection and naming of one layout ID in dialog, shared immutable data are in {@link LayoutId}
+ */
 public class Element {
 
-    public String id;
-    public boolean isAndroidNS = false;
-    public String nameFull; // element name with package
-    public String name; // element name
+    public final LayoutId row;
+    public final String id;
+    public final boolean isAndroidNS;
+    public final String nameFull; // element name with package, null for framework tags
+    public final String name; // element name
     public String fieldName; // name of variable
     public boolean isValid = false;
     public boolean used = true;
+    public boolean lazy = false; // looked up on first access by generated getter
+    public String container; // full ID of ancestor view to search in, null to search from root
+    public List<Element> children; // views of include bound in nested holder, null for other views
+    public List<String> variants; // layout folders containing this ID, null if layout has no variants
+    public boolean typeMismatch = false; // type differs between layout variants
     // constants
-    private static final Pattern sIdPattern = Pattern.compile("@\\+?(android:)?id/([^$]+)$", Pattern.CASE_INSENSITIVE);
     private static final Pattern sValidityPattern = Pattern.compile("^([a-zA-Z_\\$][\\w\\$]*)$", Pattern.CASE_INSENSITIVE);
 
-    public Element(String name, String id) {
-        // id
-        final Matcher matcher = sIdPattern.matcher(id);
-        if (matcher.find() && matcher.groupCount() > 0) {
-            this.id = matcher.group(2);
-
-            String androidNS = matcher.group(1);
-            this.isAndroidNS = !(androidNS == null || androidNS.length() == 0);
-        }
-
-        // name
-        String[] packages = name.split("\\.");
-        if (packages.length > 1) {
-            this.nameFull = name;
-            this.name = packages[packages.length - 1];
-        } else {
-            this.nameFull = null;
-            this.name = name;
-        }
-
+    public Element(LayoutId row) {
+        this.row = row;
+        this.id = row.id;
+        this.isAndroidNS = row.isAndroidNS;
+        this.nameFull = row.name == row.simpleName ? null : row.name; // both interned
+        this.name = row.simpleName;
+        this.container = row.parent;
         this.fieldName = getFieldName();
     }
 
@@ -45,19 +41,7 @@ public class Element {
      * @return
      */
     public String getFullID() {
-        StringBuilder fullID = new StringBuilder();
-        String rPrefix;
-
-        if (isAndroidNS) {
-            rPrefix = "android.R.id.";
-        } else {
-            rPrefix = "R.id.";
-        }
-
-        fullID.append(rPrefix);
-        fullID.append(id);
-
-        return fullID.toString();
+        return row.getFullID();
     }
 
     /**
@@ -0,0 +1,180 @@
+package eu.inmite.android.plugin.butterknifezelezny.model;
+
+/**
+ * One row of the layout ID index - a tag (or its custom class), its ID and included layout.
+ * Root tag of layout has its row even without ID, its ID is overridden by ID of include tag.
+ * Rows are immutable and their strings interned, so scans of one layout version can be shared
+ * between threads and dialog invocations.
+ */
+public class LayoutId {
+
+    public final String name; // tag name or value of class attribute
+    public final String simpleName; // name without package
+    public final String id; // parsed ID without @+id/ prefix, may be null
+    public final boolean isAndroidNS;
+    public final String include; // name of included layout, may be null
+    public final String parent; // full ID of nearest ancestor with ID, may be null
+    public final String scope; // full ID of include instance containing this view, null if it's not in scoped include
+    public final boolean isRoot; // root tag of scanned layout (may be merge), rows derived by composition are not roots
+    private final String mFullID;
+
+    public LayoutId(String name, String id, boolean isAndroidNS, String include, String parent, boolean isRoot) {
+        this(name, id, isAndroidNS, include, parent, null, isRoot);
+    }
+
+    private LayoutId(String name, String id, boolean isAndroidNS, String include, String parent, String scope, boolean isRoot) {
+        this.name = name.intern();
+        this.simpleName = name.substring(name.lastIndexOf('.') + 1).intern();
+        this.id = id == null ? null : id.intern();
+        this.isAndroidNS = isAndroidNS;
+        this.include = include == null ? null : include.intern();
+        this.parent = parent == null ? null : parent.intern();
+        this.scope = scope; // full ID of other row, already interned
+        this.isRoot = isRoot;
+        this.mFullID = id == null ? null : ((isAndroidNS ? "android.R.id." : "R.id.") + id).intern();
+    }
+
+    /**
+     * Create row from raw attribute values found in layout XML
+     *
+     * @param name    tag name or custom class
+     * @param rawId   value of android:id attribute (eg. @+id/text), may be null
+     * @param include name of included layout, may be null
+     * @param parent  full ID of nearest ancestor with ID, may be null
+     * @return
+     */
+    public static LayoutId create(String name, String rawId, String include, String parent) {
+        return create(name, rawId, include, parent, false);
+    }
+
+    /**
+     * Create row of root tag from raw attribute values, it's created even if tag has no ID
+     *
+     * @param name  tag name or custom class
+     * @param rawId value of android:id attribute, may be null
+     * @return
+     */
+    public static LayoutId createRoot(String name, String rawId) {
+        return create(name, rawId, null, null, true);
+    }
+
+    private static LayoutId create(String name, String rawId, String include, String parent, boolean isRoot) {
+        String id = null;
+        boolean androidNS = false;
+
+        int start = parseId(rawId);
+        if (start >= 0) {
+            id = rawId.substring(start);
+            androidNS = start > 8 && rawId.regionMatches(true, start - 11, "android:", 0, 8);
+        }
+
+        return new LayoutId(name, id, androidNS, include, parent, isRoot);
+    }
+
+    /**
+     * Full ID as used in Java code from raw attribute value
+     *
+     * @param rawId value of android:id attribute (eg. @+id/text), may be null
+     * @return null if value is not ID
+     */
+    public static String getFullID(String rawId) {
+        int start = parseId(rawId);
+        if (start < 0) {
+            return null;
+        }
+
+        boolean androidNS = start > 8 && rawId.regionMatches(true, start - 11, "android:", 0, 8);
+        return (androidNS ? "android.R.id." : "R.id.") + rawId.substring(start);
+    }
+
+    /**
+     * Find start of ID in raw value ([@][+][android:]id/[ID])
+     *
+     * @param rawId
+     * @return -1 if value is not ID
+     */
+    private static int parseId(String rawId) {
+        int i = rawId == null ? -1 : rawId.indexOf('@');
+        if (i < 0) {
+            return -1;
+        }
+
+        i++;
+        if (i < rawId.length() && rawId.charAt(i) == '+') {
+            i++;
+        }
+        if (rawId.regionMatches(true, i, "android:", 0, 8)) {
+            i += 8;
+        }
+        if (!rawId.regionMatches(true, i, "id/", 0, 3) || i + 3 >= rawId.length() || rawId.indexOf('$', i) >= 0) {
+            return -1;
+        }
+
+        return i + 3;
+    }
+
+    /**
+     * Same row placed under another ancestor (eg. root of included layout)
+     *
+     * @param parent
+     * @return
+     */
+    public LayoutId withParent(String parent) {
+        return new LayoutId(name, id, isAndroidNS, include, parent, scope, false);
+    }
+
+    /**
+     * Root of included layout whose ID is overridden by ID of include tag
+     *
+     * @param include include tag with ID
+     * @return
+     */
+    public LayoutId withIdOf(LayoutId include) {
+        return new LayoutId(name, include.id, include.isAndroidNS, this.include, include.parent, include.scope, false);
+    }
+
+    /**
+     * Same row placed into include instance
+     *
+     * @param scope full ID of include
+     * @return
+     */
+    public LayoutId withScope(String scope) {
+        return new LayoutId(name, id, isAndroidNS, include, parent, scope, false);
+    }
+
+    /**
+     * Include with ID whose views are bound in nested holder
+     *
+     * @return
+     */
+    public boolean isScope() {
+        return include != null && id != null;
+    }
+
+    public boolean hasId() {
+        return id != null;
+    }
+
+    public boolean isInclude() {
+        return include != null;
+    }
+
+    /**
+     * Full ID as used in Java code (eg. R.id.text)
+     *
+     * @return
+     */
+    public String getFullID() {
+        return mFullID;
+    }
+
+    /**
+     * Create UI element for this row
+     *
+     * @return
+     */
+    public Element toElement() {
+        return new Element(this);
+    }
+}
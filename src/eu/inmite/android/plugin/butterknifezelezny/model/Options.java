@@ -0,0 +1,23 @@
+package eu.inmite.android.plugin.butterknifezelezny.model;
+
+/**
+ * Generator settings selected in dialog
+ */
+public class Options {
+
+    public boolean createHolder = false;
+    public String holderClassName = "ViewHolder";
+    public String methodName = "initViews";
+    public boolean reformatWholeFile = false; // otherwise only generated members are reformatted
+    public boolean sync = true; // patch existing init method instead of creating new one
+    public boolean removeStale = false; // remove bindings of IDs which are no longer in layout
+    public boolean bindingClass = false; // generate one binding class per layout, class holds only its instance
+    public boolean wireAdapter = true; // add or patch getView / RecyclerView adapter methods to use holder
+
+    public Options() {
+    }
+
+    public Options(boolean createHolder) {
+        this.createHolder = createHolder;
+    }
+}